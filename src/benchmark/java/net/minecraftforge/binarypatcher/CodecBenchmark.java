@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reports the size, encode time and decode time of each {@link Codec} on real patch bundles.
+ * Every bundle is first decoded with whatever codec it was written with, and the raw jar is then re-encoded with each codec.
+ *
+ * Usage: CodecBenchmark bundle.lzma [more bundles...] [--codec name ...]
+ */
+public class CodecBenchmark {
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 5;
+    private static final String[] DEFAULT_CODECS = { "lzma", "lzma:3", "lzma:9", "lzma:9:26", "deflate:1", "deflate:6", "deflate:9", "none" };
+
+    public static void main(String[] args) throws Exception {
+        List<File> bundles = new ArrayList<>();
+        List<Codec> codecs = new ArrayList<>();
+        for (int x = 0; x < args.length; x++) {
+            if ("--codec".equals(args[x]))
+                codecs.add(Codec.byName(args[++x]));
+            else
+                bundles.add(new File(args[x]));
+        }
+        if (bundles.isEmpty()) {
+            System.out.println("Usage: CodecBenchmark bundle.lzma [more bundles...] [--codec name ...]");
+            return;
+        }
+        if (codecs.isEmpty()) {
+            for (String name : DEFAULT_CODECS)
+                codecs.add(Codec.byName(name));
+        }
+
+        System.out.println("Runtime: " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ')');
+        for (File bundle : bundles) {
+            byte[] raw;
+            try (InputStream in = Codec.openInput(new ByteArrayInputStream(Files.readAllBytes(bundle.toPath())))) {
+                raw = Util.toByteArray(in);
+            }
+            System.out.println(bundle + ": " + raw.length + " bytes raw");
+            System.out.println(String.format("  %-16s %12s %8s %14s %14s", "codec", "size", "ratio", "encode ms", "decode ms"));
+
+            for (Codec codec : codecs) {
+                byte[][] encoded = new byte[1][];
+                double encode = time(() -> encoded[0] = encode(codec, raw));
+                double decode = time(() -> {
+                    if (decode(encoded[0]) != raw.length)
+                        throw new IllegalStateException("Codec " + codec.getName() + " did not round trip");
+                });
+                System.out.println(String.format("  %-16s %12d %7.2f%% %14.3f %14.3f", codec.getName(), encoded[0].length, encoded[0].length * 100.0 / raw.length, encode, decode));
+            }
+        }
+    }
+
+    private static byte[] encode(Codec codec, byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream stream = Codec.openOutput(codec, out)) {
+            stream.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static int decode(byte[] data) throws Exception {
+        byte[] buf = new byte[64 * 1024];
+        int total = 0;
+        try (InputStream in = Codec.openInput(new ByteArrayInputStream(data))) {
+            int len;
+            while ((len = in.read(buf)) != -1)
+                total += len;
+        }
+        return total;
+    }
+
+    // Median in milliseconds
+    private static double time(Task task) throws Exception {
+        for (int x = 0; x < WARMUP; x++)
+            task.run();
+
+        long[] times = new long[ITERATIONS];
+        for (int x = 0; x < ITERATIONS; x++) {
+            long start = System.nanoTime();
+            task.run();
+            times[x] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[ITERATIONS / 2] / 1e6;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the multi-release paths in {@link Jdk} next to the Java 8 baseline, on whatever runtime this is launched with.
+ * Run against the built jar, so that the runtime picks the matching versioned class, see the benchmarkJava* tasks.
+ * The runtime only ever loads one Jdk class, so the baseline is a copy of the implementations in src/main/java.
+ */
+public class JdkBenchmark {
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Runtime: " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ')');
+
+        byte[] stream = new byte[4 * 1024 * 1024];
+        new Random(42).nextBytes(stream);
+
+        run("readAllBytes 4m x10", () -> {
+            for (int x = 0; x < 10; x++)
+                Baseline.readAllBytes(new ByteArrayInputStream(stream));
+        }, () -> {
+            for (int x = 0; x < 10; x++)
+                Jdk.readAllBytes(new ByteArrayInputStream(stream));
+        });
+
+        run("transfer 4m x10", () -> {
+            for (int x = 0; x < 10; x++)
+                Baseline.transfer(new ByteArrayInputStream(stream), new ByteArrayOutputStream(stream.length));
+        }, () -> {
+            for (int x = 0; x < 10; x++)
+                Jdk.transfer(new ByteArrayInputStream(stream), new ByteArrayOutputStream(stream.length));
+        });
+
+        run("io executor 10k sleeping tasks", () -> sleepers(Baseline.newIoExecutor(64, "JdkBenchmark")), () -> sleepers(Jdk.newIoExecutor(64, "JdkBenchmark")));
+    }
+
+    private static void sleepers(ExecutorService executor) throws Exception {
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int x = 0; x < 10_000; x++)
+                futures.add(executor.submit(() -> { Thread.sleep(1); return null; }));
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    // Interleaved so that JIT and GC state affect both variants the same way
+    private static void run(String name, Task baseline, Task versioned) throws Exception {
+        for (int x = 0; x < WARMUP; x++) {
+            baseline.run();
+            versioned.run();
+        }
+
+        long[] base = new long[ITERATIONS];
+        long[] times = new long[ITERATIONS];
+        for (int x = 0; x < ITERATIONS; x++) {
+            base[x] = time(baseline);
+            times[x] = time(versioned);
+        }
+        Arrays.sort(base);
+        Arrays.sort(times);
+        System.out.println(String.format("  %-32s baseline %8.3f ms  versioned %8.3f ms  %+6.1f%%", name,
+            base[ITERATIONS / 2] / 1e6, times[ITERATIONS / 2] / 1e6, (times[ITERATIONS / 2] - base[ITERATIONS / 2]) * 100.0 / base[ITERATIONS / 2]));
+    }
+
+    private static long time(Task task) throws Exception {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static class Baseline {
+        static byte[] readAllBytes(InputStream stream) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int nRead;
+            byte[] data = new byte[8192];
+            while ((nRead = stream.read(data, 0, data.length)) != -1)
+                buffer.write(data, 0, nRead);
+            return buffer.toByteArray();
+        }
+
+        static void transfer(InputStream source, OutputStream target) throws IOException {
+            byte[] buf = new byte[8192];
+            int length;
+            while ((length = source.read(buf)) != -1)
+                target.write(buf, 0, length);
+        }
+
+        static ExecutorService newIoExecutor(int threads, String name) {
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures peak heap usage of {@link Generator#create()} and {@link Patcher#process()}, with and without a memory budget.
+ * Uses a synthetic jar where every class is patched, which is the worst case for the patch maps.
+ *
+ * Usage: MemoryBenchmark [classes] [budget bytes]
+ */
+public class MemoryBenchmark {
+    public static void main(String[] args) throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 4 * 1024 * 1024;
+
+        System.out.println("Runtime: " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ')');
+        System.out.println("Max heap: " + mb(Runtime.getRuntime().maxMemory()) + ", classes: " + classes + ", budget: " + mb(budget));
+
+        File dir = Files.createTempDirectory("binarypatcher-memory").toFile();
+        try {
+            File clean = new File(dir, "clean.jar");
+            File dirty = new File(dir, "dirty.jar");
+            createJars(clean, dirty, classes);
+
+            File bundle = new File(dir, "unlimited.lzma");
+            measure("create unlimited", () -> new Generator(bundle).addSet(clean, dirty, null).create());
+            File budgeted = new File(dir, "budget.lzma");
+            measure("create budget", () -> new Generator(budgeted).addSet(clean, dirty, null).memoryBudget(budget).create());
+            if (!Arrays.equals(Files.readAllBytes(bundle.toPath()), Files.readAllBytes(budgeted.toPath())))
+                throw new IllegalStateException("Budgeted bundle differs from the unlimited one");
+
+            measure("apply unlimited", () -> {
+                Patcher patcher = new Patcher(clean, new File(dir, "unlimited.jar"));
+                patcher.loadPatches(bundle, null);
+                patcher.process();
+            });
+            measure("apply budget", () -> {
+                Patcher patcher = new Patcher(clean, new File(dir, "budget.jar")).memoryBudget(budget);
+                patcher.loadPatches(bundle, null);
+                patcher.process();
+            });
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private static void createJars(File clean, File dirty, int classes) throws IOException {
+        Random rand = new Random(42);
+        try (ZipOutputStream zclean = new ZipOutputStream(new FileOutputStream(clean));
+             ZipOutputStream zdirty = new ZipOutputStream(new FileOutputStream(dirty))) {
+            for (int x = 0; x < classes; x++) {
+                String name = "pkg" + (x % 100) + "/Class" + x + ".class";
+                byte[] data = new byte[1024 + rand.nextInt(8192)];
+                rand.nextBytes(data);
+                // Keep most of the class, so the patches are realistic deltas rather than whole files
+                byte[] changed = new byte[data.length + 512];
+                System.arraycopy(data, 0, changed, 0, data.length);
+                for (int y = data.length; y < changed.length; y++)
+                    changed[y] = (byte)rand.nextInt();
+
+                zclean.putNextEntry(new ZipEntry(name));
+                zclean.write(data);
+                zdirty.putNextEntry(new ZipEntry(name));
+                zdirty.write(changed);
+            }
+        }
+    }
+
+    private static void measure(String name, Task task) throws Exception {
+        System.gc();
+        long baseline = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                baseline += pool.getUsage().getUsed();
+            }
+        }
+
+        // The tools log every entry, which would only measure the console
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+        }));
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            System.setOut(out);
+        }
+        long time = System.nanoTime() - start;
+
+        // Summing each pool's peak over estimates a little, as pools don't all peak at the same time, but it is a stable upper bound
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("  %-20s peak heap %10s  above baseline %10s  %8.0f ms", name, mb(peak), mb(peak - baseline), time / 1e6));
+    }
+
+    private static String mb(long bytes) {
+        return String.format("%.1f MB", bytes / 1024.0 / 1024.0);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+}
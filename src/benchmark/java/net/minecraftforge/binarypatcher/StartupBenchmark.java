@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the wall time of fresh fat jar runs with and without class data sharing.
+ * Every run is a new JVM, so this measures startup and class loading along with the work itself.
+ *
+ * Usage: StartupBenchmark fatjar archive runs [tool arguments...]
+ *
+ * The archive must have been made from the same jar by the runtime running this benchmark, see the cdsArchive task.
+ *
+ * A JVM only maps an archive at launch, so the tool itself could only use one by relaunching into a child JVM.
+ * The relaunched variant times that, a bare parent JVM that starts the archive run and waits for it.
+ * The real parent would also load the tool and parse its options first, so this is the least a relaunch could cost.
+ */
+public class StartupBenchmark {
+    private static final int WARMUP = 2;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3)
+            throw new IllegalArgumentException("Usage: StartupBenchmark fatjar archive runs [tool arguments...]");
+        File jar = new File(args[0]).getAbsoluteFile();
+        File archive = new File(args[1]).getAbsoluteFile();
+        int runs = Integer.parseInt(args[2]);
+        List<String> tool = Arrays.asList(args).subList(3, args.length);
+
+        System.out.println("Runtime: " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + ')');
+        System.out.println("Jar: " + jar + ", runs: " + runs);
+        System.out.println("Arguments: " + String.join(" ", tool));
+
+        File dir = Files.createTempDirectory("binarypatcher-startup").toFile();
+        try {
+            File log = new File(dir, "output.log");
+
+            List<String> plain = command(jar, Collections.emptyList(), tool);
+            List<String> shared = command(jar, Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"), tool);
+            List<String> relaunched = new ArrayList<>(Arrays.asList(java(), "-cp", System.getProperty("java.class.path"), Relaunch.class.getName()));
+            relaunched.addAll(shared);
+
+            long[][] times = new long[3][runs];
+            for (int x = -WARMUP; x < runs; x++) {
+                // Interleaved so that disk cache and thermal state affect each variant the same way
+                long a = time(plain, log);
+                long b = time(shared, log);
+                long c = time(relaunched, log);
+                if (x >= 0) {
+                    times[0][x] = a;
+                    times[1][x] = b;
+                    times[2][x] = c;
+                }
+            }
+            report("plain", times[0], times[0]);
+            report("-XX:SharedArchiveFile", times[1], times[0]);
+            report("relaunched", times[2], times[0]);
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private static String java() {
+        return new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+    }
+
+    private static List<String> command(File jar, List<String> jvm, List<String> tool) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(java());
+        cmd.addAll(jvm);
+        cmd.add("-cp");
+        cmd.add(jar.getPath());
+        cmd.add(ConsoleTool.class.getName());
+        cmd.addAll(tool);
+        return cmd;
+    }
+
+    private static long time(List<String> cmd, File log) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(log).start();
+        int code = process.waitFor();
+        long time = System.nanoTime() - start;
+        if (code != 0)
+            throw new IllegalStateException("Run failed with exit code " + code + ": " + String.join(" ", cmd) + '\n' + new String(Files.readAllBytes(log.toPath())));
+        return time;
+    }
+
+    private static void report(String name, long[] times, long[] baseline) {
+        System.out.println(String.format("  %-24s median %8.1f ms  min %8.1f ms  %+6.1f%%", name,
+            median(times) / 1e6, min(times) / 1e6, (median(times) - median(baseline)) * 100.0 / median(baseline)));
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static long min(long[] times) {
+        long min = Long.MAX_VALUE;
+        for (long time : times)
+            min = Math.min(min, time);
+        return min;
+    }
+
+    /*
+     * Runs the given command with this JVM's output and waits for it, the same as the tool would to relaunch itself.
+     */
+    public static class Relaunch {
+        public static void main(String[] args) throws Exception {
+            System.exit(new ProcessBuilder(args).inheritIO().start().waitFor());
+        }
+    }
+}
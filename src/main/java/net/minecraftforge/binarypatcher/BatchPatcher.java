@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies the same patch bundles to several clean jars, decoding each bundle only once.
+ * The decoded {@link Patch} objects are shared between all targets, which are then processed concurrently.
+ * Every line a target logs is prefixed with its number, in the order the targets were added.
+ */
+public class BatchPatcher {
+    private final List<PatchBundle> bundles = new ArrayList<>();
+    private final List<Target> targets = new ArrayList<>();
+    private boolean pack200 = false;
+    private boolean legacy = false;
+    private boolean cache = false;
+
+    public BatchPatcher pack200(boolean value) {
+        this.pack200 = value;
+        return this;
+    }
+
+    public BatchPatcher legacy(boolean value) {
+        this.legacy = value;
+        return this;
+    }
+
+    public BatchPatcher cache(boolean value) {
+        this.cache = value;
+        return this;
+    }
+
+    // Like Patcher, bundles are applied in the order they were loaded.
+    public BatchPatcher loadPatches(File file) throws IOException {
+        log("Loading patches file: " + file);
+        bundles.add(PatchBundle.load(file, pack200, legacy, cache));
+        return this;
+    }
+
+    /**
+     * @param patcher A configured Patcher for the target, it should not have any patches loaded yet
+     * @param prefix The patchset prefix to select from every bundle, or null for all patches
+     */
+    public BatchPatcher addTarget(Patcher patcher, String prefix) {
+        targets.add(new Target(patcher, prefix));
+        return this;
+    }
+
+    public void process() throws IOException {
+        if (targets.isEmpty())
+            return;
+
+        // Patching is CPU bound, so this uses platform threads rather than Jdk.newIoExecutor
+        ExecutorService executor = Executors.newFixedThreadPool(targets.size(), r -> {
+            Thread thread = new Thread(r, "BatchPatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int x = 0; x < targets.size(); x++) {
+                Target target = targets.get(x);
+                String tag = "[#" + x + "] "; // Matches the target numbers ConsoleTool lists, the threads' output is interleaved
+                futures.add(executor.submit(() -> {
+                    ConsoleTool.logTag(tag);
+                    try {
+                        for (PatchBundle bundle : bundles)
+                            target.patcher.loadPatches(bundle, target.prefix);
+                        target.patcher.process();
+                    } finally {
+                        ConsoleTool.logTag(null);
+                    }
+                    return null;
+                }));
+            }
+
+            // Wait for every target, so one failure doesn't leave the others half written
+            IOException error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null)
+                        error = new IOException("Failed to process batch target", e.getCause());
+                    else
+                        error.addSuppressed(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while processing batch", e);
+                }
+            }
+            if (error != null)
+                throw error;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void log(String message) {
+        ConsoleTool.log(message);
+    }
+
+    private static class Target {
+        private final Patcher patcher;
+        private final String prefix;
+
+        private Target(Patcher patcher, String prefix) {
+            this.patcher = patcher;
+            this.prefix = prefix;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A delta between two releases of a patch bundle, holding only the entries that were added or changed.
+ *
+ * The delta records the order of every entry in the new bundle, and the hashes of both bundles. So the new bundle
+ * can be rebuilt from the old one byte for byte, using the same {@link Codec}, and caches keyed by the bundle's hash keep working.
+ * This relies on bundles being reproducible, so pack200 bundles are not supported.
+ */
+public class BundleDelta {
+    public static final String INDEX = "delta.index";
+    private static final int MAGIC = 0x4250444C; // BPDL
+    private static final int VERSION = 1;
+
+    /**
+     * Writes the delta that turns {@code oldBundle} into {@code newBundle}.
+     */
+    public static void create(File oldBundle, File newBundle, File output) throws IOException {
+        byte[] oldData = Files.readAllBytes(oldBundle.toPath());
+        byte[] newData = Files.readAllBytes(newBundle.toPath());
+        Codec[] codec = new Codec[1];
+        Map<String, byte[]> oldEntries = PatchBundle.readRaw(oldData, null);
+        Map<String, byte[]> newEntries = PatchBundle.readRaw(newData, codec);
+
+        // Make sure the new bundle can actually be rebuilt, before shipping a delta that would fail on every client
+        if (!Arrays.equals(sha1(newData), sha1(write(newEntries, codec[0]))))
+            throw new IOException("Bundle " + newBundle + " is not reproducible, it must be written by Generator without pack200");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(bos);
+        index.writeInt(MAGIC);
+        index.writeByte(VERSION);
+        writeHash(index, sha1(oldData));
+        writeHash(index, sha1(newData));
+        index.writeUTF(codec[0].getName());
+        index.writeInt(newEntries.size());
+
+        Map<String, byte[]> delta = new LinkedHashMap<>();
+        delta.put(INDEX, null); // Keep the index first, its data is filled in once every entry is known
+        int added = 0, changed = 0;
+        for (Map.Entry<String, byte[]> entry : newEntries.entrySet()) {
+            byte[] old = oldEntries.get(entry.getKey());
+            boolean included = old == null || !Arrays.equals(old, entry.getValue());
+            index.writeUTF(entry.getKey());
+            index.writeBoolean(included);
+            if (included) {
+                delta.put(entry.getKey(), entry.getValue());
+                if (old == null)
+                    added++;
+                else
+                    changed++;
+            }
+        }
+        int removed = 0;
+        for (String name : oldEntries.keySet()) {
+            if (!newEntries.containsKey(name))
+                removed++;
+        }
+        index.flush();
+        delta.put(INDEX, bos.toByteArray());
+
+        byte[] data = write(delta, codec[0]);
+        log("Delta: " + added + " added, " + changed + " changed, " + removed + " removed, " + newData.length + " -> " + data.length);
+        try (FileOutputStream fos = new FileOutputStream(output)) {
+            fos.write(data);
+        }
+    }
+
+    /**
+     * Rebuilds the new bundle from the old bundle and a delta created by {@link #create(File, File, File)}.
+     * Both inputs are verified against the hashes in the delta, and nothing is written if either doesn't match.
+     */
+    public static void apply(File oldBundle, File delta, File output) throws IOException {
+        byte[] oldData = Files.readAllBytes(oldBundle.toPath());
+        Map<String, byte[]> oldEntries = PatchBundle.readRaw(oldData, null);
+        Map<String, byte[]> deltaEntries = PatchBundle.readRaw(Files.readAllBytes(delta.toPath()), null);
+
+        byte[] index = deltaEntries.get(INDEX);
+        if (index == null)
+            throw new IOException("Invalid bundle delta " + delta + ", missing " + INDEX);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Invalid bundle delta " + delta);
+        int version = in.readByte() & 0xFF;
+        if (version != VERSION)
+            throw new IOException("Unsupported bundle delta version: " + version);
+        byte[] oldHash = readHash(in);
+        byte[] newHash = readHash(in);
+        Codec codec = Codec.byName(in.readUTF());
+
+        if (!Arrays.equals(oldHash, sha1(oldData)))
+            throw new IOException("Bundle delta " + delta + " was not created from " + oldBundle);
+
+        int count = in.readInt();
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int x = 0; x < count; x++) {
+            String name = in.readUTF();
+            byte[] data = in.readBoolean() ? deltaEntries.get(name) : oldEntries.get(name);
+            if (data == null)
+                throw new IOException("Bundle delta " + delta + " is missing data for " + name);
+            entries.put(name, data);
+        }
+
+        byte[] data = write(entries, codec);
+        if (!Arrays.equals(newHash, sha1(data)))
+            throw new IOException("Rebuilt bundle does not match the expected hash, " + delta + " may be corrupt");
+
+        log("Rebuilt: " + output + " " + entries.size() + " entries");
+        try (FileOutputStream fos = new FileOutputStream(output)) {
+            fos.write(data);
+        }
+    }
+
+    // Must match Generator's output exactly, or rebuilt bundles won't hash the same
+    private static byte[] write(Map<String, byte[]> entries, Codec codec) throws IOException {
+        Generator gen = new Generator(null).codec(codec);
+        return gen.encode(gen.createJar(entries));
+    }
+
+    private static void writeHash(DataOutputStream out, byte[] hash) throws IOException {
+        out.writeByte(hash.length);
+        out.write(hash);
+    }
+
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        byte[] ret = new byte[in.readByte() & 0xFF];
+        in.readFully(ret);
+        return ret;
+    }
+
+    private static byte[] sha1(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void log(String message) {
+        ConsoleTool.log(message);
+    }
+}
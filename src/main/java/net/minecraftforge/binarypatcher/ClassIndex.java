@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sorted, immutable table of class names.
+ * Each name is stored once and referred to by its position in the table, classes are also
+ * grouped with their 'siblings', the outer class and all of its inner classes, using flat int arrays.
+ */
+public class ClassIndex {
+    private final String[] names;
+    private final String[] outers;
+    private final int[] groupStart; // Index into members, one per outer name, plus a trailing end marker
+    private final int[] members;    // Name ids, ordered by group and then by name
+
+    private ClassIndex(String[] names) {
+        this.names = names;
+
+        String[] outerNames = new String[names.length];
+        for (int x = 0; x < names.length; x++)
+            outerNames[x] = getOuter(names[x]);
+        // Outer names don't come out of the sorted names in order, 'a$b' sorts before 'a/b' but its outer 'a' sorts after it
+        this.outers = sortedUnique(outerNames.clone());
+        int count = this.outers.length;
+
+        int[] outerOf = new int[names.length];
+        this.groupStart = new int[count + 1];
+        for (int x = 0; x < names.length; x++) {
+            outerOf[x] = indexOf(this.outers, count, outerNames[x], outerNames[x].length());
+            this.groupStart[outerOf[x] + 1]++;
+        }
+        for (int x = 1; x < this.groupStart.length; x++)
+            this.groupStart[x] += this.groupStart[x - 1];
+
+        this.members = new int[names.length];
+        int[] next = Arrays.copyOf(this.groupStart, count);
+        for (int x = 0; x < names.length; x++)
+            this.members[next[outerOf[x]]++] = x;
+    }
+
+    /**
+     * Builds an index from any collection of names, duplicates are removed.
+     */
+    public static ClassIndex of(Collection<String> names) {
+        return new ClassIndex(sortedUnique(names.toArray(new String[names.size()])));
+    }
+
+    private static String[] sortedUnique(String[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (int x = 0; x < values.length; x++) {
+            if (count == 0 || !values[count - 1].equals(values[x]))
+                values[count++] = values[x];
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return The id of the name, or a negative number if it is not in the index.
+     */
+    public int indexOf(String name) {
+        return indexOf(name, name.length());
+    }
+
+    /**
+     * Looks up the first {@code length} characters of {@code name}, this allows looking up
+     * entry names such as {@code a/b.class} without building a substring for every entry.
+     */
+    public int indexOf(String name, int length) {
+        return indexOf(names, names.length, name, length);
+    }
+
+    public int getGroupCount() {
+        return outers.length;
+    }
+
+    public String getOuter(int group) {
+        return outers[group];
+    }
+
+    /**
+     * @return The group for the outer class name, or a negative number if there are no classes in it.
+     */
+    public int getGroup(String outer) {
+        return indexOf(outers, outers.length, outer, outer.length());
+    }
+
+    /**
+     * @return The ids of every class in the group, the outer class itself included if it exists.
+     */
+    public int[] getMembers(int group) {
+        return Arrays.copyOfRange(members, groupStart[group], groupStart[group + 1]);
+    }
+
+    public static String getOuter(String name) {
+        int idx = name.indexOf('$');
+        return idx == -1 ? name : name.substring(0, idx);
+    }
+
+    private static int indexOf(String[] table, int size, String key, int length) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(table[mid], key, length);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private static int compare(String value, String key, int length) {
+        int max = Math.min(value.length(), length);
+        for (int x = 0; x < max; x++) {
+            char a = value.charAt(x);
+            char b = key.charAt(x);
+            if (a != b)
+                return a - b;
+        }
+        return value.length() - length;
+    }
+}
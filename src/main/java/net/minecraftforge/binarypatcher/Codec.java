@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ServiceLoader;
+
+/**
+ * Compresses the patch bundle as a whole.
+ *
+ * Bundles written with anything other than {@link #LZMA} start with a header naming the codec, so {@link Patcher}
+ * can read any bundle without being told how it was written. The header starts with 0xFF, which is never a valid
+ * first byte of an LZMA stream, so bundles from older versions are still read as plain LZMA.
+ *
+ * Names can carry options after a ':', see {@link LzmaCodec} and {@link DeflateCodec}.
+ * Additional implementations can be registered through {@link ServiceLoader}.
+ */
+public interface Codec {
+    int HEADER_MAGIC = 0xFF425043; // 0xFF BPC
+    int HEADER_VERSION = 1;
+
+    /**
+     * The original format, an LZMA stream with an end marker and no header.
+     */
+    Codec LZMA = new LzmaCodec();
+
+    Codec NONE = new Codec() {
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream encode(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decode(InputStream in) {
+            return in;
+        }
+    };
+
+    /**
+     * @return The name and options that {@link #byName(String)} resolves back to this codec.
+     */
+    String getName();
+
+    OutputStream encode(OutputStream out) throws IOException;
+
+    InputStream decode(InputStream in) throws IOException;
+
+    public static Codec byName(String name) {
+        int idx = name.indexOf(':');
+        String type = idx == -1 ? name : name.substring(0, idx);
+        String options = idx == -1 ? null : name.substring(idx + 1);
+
+        if ("lzma".equals(type))
+            return options == null ? LZMA : LzmaCodec.parse(options);
+        if ("deflate".equals(type))
+            return options == null ? new DeflateCodec() : DeflateCodec.parse(options);
+        if (NONE.getName().equals(name))
+            return NONE;
+
+        for (Codec codec : ServiceLoader.load(Codec.class)) {
+            if (codec.getName().equals(name))
+                return codec;
+        }
+
+        throw new IllegalArgumentException("Unknown bundle codec: " + name);
+    }
+
+    /**
+     * Wraps the output in the codec, writing the header first if it isn't the default.
+     */
+    public static OutputStream openOutput(Codec codec, OutputStream out) throws IOException {
+        if (codec == LZMA)
+            return codec.encode(out);
+
+        DataOutputStream header = new DataOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void close() {} // The codec owns the stream from here on
+        });
+        header.writeInt(HEADER_MAGIC);
+        header.writeByte(HEADER_VERSION);
+        header.writeUTF(codec.getName());
+        header.flush();
+        return codec.encode(out);
+    }
+
+    /**
+     * Detects the codec a bundle was written with, and wraps the input in it.
+     */
+    public static InputStream openInput(InputStream in) throws IOException {
+        return openInput(in, null);
+    }
+
+    /**
+     * @param found Receives the codec the bundle was written with, if not null
+     */
+    public static InputStream openInput(InputStream in, Codec[] found) throws IOException {
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        int first = pin.read();
+        if (first != -1)
+            pin.unread(first);
+
+        Codec codec = LZMA;
+        if (first == (HEADER_MAGIC >>> 24)) {
+            DataInputStream header = new DataInputStream(pin);
+            if (header.readInt() != HEADER_MAGIC)
+                throw new IOException("Invalid bundle header");
+            int version = header.readByte() & 0xFF;
+            if (version != HEADER_VERSION)
+                throw new IOException("Unsupported bundle header version: " + version);
+            codec = byName(header.readUTF());
+        }
+
+        if (found != null)
+            found[0] = codec;
+        return codec.decode(pin);
+    }
+}
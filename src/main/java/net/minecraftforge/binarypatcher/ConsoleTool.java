@@ -6,9 +6,12 @@ package net.minecraftforge.binarypatcher;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
+import java.util.function.BiFunction;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -21,11 +24,14 @@ public class ConsoleTool {
         TimeZone.setDefault(TimeZone.getTimeZone("GMT")); //Fix Java stupidity that causes timestamps in zips to depend on user's timezone!
         OptionParser parser = new OptionParser();
         // Shared arguments
-        OptionSpec<File> cleanO = parser.accepts("clean").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> cleanO = parser.accepts("clean").withRequiredArg().ofType(File.class);
         OptionSpec<File> outputO = parser.accepts("output").withRequiredArg().ofType(File.class).required();
         OptionSpec<String> prefixO = parser.accepts("prefix").withRequiredArg();
         OptionSpec<Void> packO = parser.accepts("pack200");
         OptionSpec<Void> legacyO = parser.accepts("legacy", "Uses the legacy patch header format, also implies --pack200. NOT RECOMENDED.");
+        OptionSpec<String> budgetO = parser.accepts("memory-budget", "Patch data kept on the heap before spilling to a temp file, such as 512m").withRequiredArg();
+        OptionSpec<Integer> threadsO = parser.accepts("threads", "Number of threads used to create patches, or to compress the output jar when applying").withRequiredArg().ofType(Integer.class);
+        OptionSpec<File> orderO = parser.accepts("order", "Class load order, such as -verbose:class output, used to lay out the output").withRequiredArg().ofType(File.class);
 
         // Create arguments
         OptionSpec<File> createO = parser.acceptsAll(Arrays.asList("dirty", "create")).withRequiredArg().ofType(File.class);
@@ -33,7 +39,23 @@ public class ConsoleTool {
         OptionSpec<File> srgO = parser.accepts("srg").withRequiredArg().ofType(File.class);
         OptionSpec<Void> reverseSrgO = parser.accepts("reverse-srg");
         OptionSpec<File> sasO = parser.accepts("sas").withRequiredArg().ofType(File.class);
-        OptionSpec<?>[] createOptions = new OptionSpec[] { patchesO, srgO, reverseSrgO, sasO };
+        OptionSpec<String> differO = parser.accepts("differ", "Diff engine used to create patches, 'xdelta' or 'suffix'").withRequiredArg();
+        OptionSpec<String> shardO = parser.accepts("shard", "Only create patches for one shard of the classes, as index/count, see --merge").withRequiredArg();
+        OptionSpec<Void> resourcesO = parser.accepts("resources", "Also create patches for changed non-class files");
+        OptionSpec<Integer> resThresholdO = parser.accepts("resource-threshold", "Resources smaller than this many bytes are stored whole instead of diffed").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Double> resRatioO = parser.accepts("resource-ratio", "Resources are stored whole if their diff is larger than this fraction of the file").withRequiredArg().ofType(Double.class);
+        OptionSpec<String> codecO = parser.accepts("codec", "Bundle compression, 'lzma', 'lzma:<preset>[:<dictionary bits>]', 'deflate[:<level>]', or 'none'. Detected automatically when applying").withRequiredArg();
+        OptionSpec<Void> verifyO = parser.accepts("verify", "Apply every new patch to its clean class, and check that it produces the dirty class");
+        OptionSpec<Void> cleanOrderO = parser.accepts("clean-order", "Store patches in the same order as the clean jar, so they can be applied with --streaming");
+        OptionSpec<?>[] createOptions = new OptionSpec[] { patchesO, srgO, reverseSrgO, sasO, differO, shardO, resourcesO, resThresholdO, resRatioO, verifyO, cleanOrderO };
+
+        // Merge arguments
+        OptionSpec<File> mergeO = parser.accepts("merge", "Combine the outputs of --shard runs into a single patch bundle").withRequiredArg().ofType(File.class);
+
+        // Delta arguments
+        OptionSpec<File> deltaO = parser.accepts("delta", "Create a delta that turns the --old bundle into this bundle").withRequiredArg().ofType(File.class);
+        OptionSpec<File> rebuildO = parser.accepts("rebuild", "Rebuild a bundle from the --old bundle and this delta").withRequiredArg().ofType(File.class);
+        OptionSpec<File> oldO = parser.accepts("old", "The previous patch bundle, for --delta and --rebuild").withRequiredArg().ofType(File.class);
 
         // Apply arguments
         OptionSpec<File> applyO = parser.accepts("apply").withRequiredArg().ofType(File.class);
@@ -41,30 +63,57 @@ public class ConsoleTool {
         OptionSpec<Void> unpatchedO = parser.accepts("unpatched");
         OptionSpec<Void> storeO = parser.accepts("store", "Disable compression in output jar file, this is a workaround for zlib-ng differences");
         OptionSpec<String> markerO = parser.accepts("marker").withRequiredArg();
-        OptionSpec<?>[] applyOptions = new OptionSpec[] { dataO, unpatchedO, storeO, markerO };
+        OptionSpec<Integer> levelO = parser.accepts("level", "Deflate level for the output jar, 0-9").withRequiredArg().ofType(Integer.class);
+        OptionSpec<Void> cacheO = parser.accepts("cache", "Cache decoded patch bundles next to the bundle file, to skip decoding on later runs");
+        OptionSpec<Void> indexO = parser.accepts("index", "Keep an index of entry checksums and offsets next to the clean jar, to skip hashing it on later runs");
+        OptionSpec<Void> directoryO = parser.accepts("directory", "Write the output as a directory of files instead of a jar, only rewriting files that changed");
+        OptionSpec<Void> directoryCleanO = parser.accepts("directory-clean", "With --directory, delete the files the previous run wrote that are no longer part of the output");
+        OptionSpec<Void> streamingO = parser.accepts("streaming", "Read the bundle alongside the clean jar instead of loading it up front, for bundles made with --clean-order");
+        OptionSpec<Integer> windowO = parser.accepts("window", "Number of patches --streaming can read ahead to find one that is out of order").withRequiredArg().ofType(Integer.class);
+        OptionSpec<String> targetPrefixO = parser.accepts("target-prefix", "The patchset prefix for each --clean/--output target when applying to several at once, in the same order. Use NULL for every patch").withRequiredArg();
+        OptionSpec<?>[] applyOptions = new OptionSpec[] { dataO, unpatchedO, storeO, markerO, levelO, cacheO, indexO, directoryO, directoryCleanO, streamingO, windowO, targetPrefixO };
 
         try {
             OptionSet options = parser.parse(args);
 
-            File output = options.valueOf(outputO).getAbsoluteFile();
+            List<File> outputs = new ArrayList<>();
+            for (File file : options.valuesOf(outputO))
+                outputs.add(file.getAbsoluteFile());
+            File output = outputs.get(0);
             boolean legacy = options.has(legacyO);
             boolean pack200 = legacy || options.has(packO);
+            long budget = options.has(budgetO) ? parseSize(options.valueOf(budgetO)) : PayloadStore.UNLIMITED;
 
-            if (output.exists() && !output.delete())
-                err("Could not delete output file: " + output);
-
-            if (!output.getParentFile().exists() && !output.getParentFile().mkdirs())
-                err("Could not make output folders: " + output.getParentFile());
+            // Outputs are deleted before anything is written, so no input may be one of them
+            OptionSpec<?>[] inputOptions = new OptionSpec<?>[] { cleanO, createO, applyO, mergeO, deltaO, rebuildO, oldO, patchesO, srgO, sasO, orderO };
+            for (OptionSpec<?> opt : inputOptions) {
+                for (Object value : options.valuesOf(opt)) {
+                    if (outputs.contains(((File)value).getAbsoluteFile()))
+                        err("The --" + opt.options().get(0) + " input " + value + " can not also be an --output");
+                }
+            }
 
             if (options.has(createO) && options.has(applyO))
                 err("Cannot specify --apply and --create at the same time!");
 
+            if (options.has(mergeO) && (options.has(createO) || options.has(applyO)))
+                err("Cannot specify --merge and --apply/--create at the same time!");
+
+            if ((options.has(deltaO) || options.has(rebuildO)) && (options.has(createO) || options.has(applyO) || options.has(mergeO)))
+                err("Cannot specify --delta/--rebuild and --apply/--create/--merge at the same time!");
+
+            if ((options.has(createO) || options.has(applyO)) && !options.has(cleanO))
+                err("Missing required option --clean");
+
             if (options.has(createO)) {
                 for (OptionSpec<?> opt : applyOptions) {
                     if (options.has(opt))
                         err("Connot specify --create/--dirty and --" + opt.options().get(0) + " at the same time!");
                 }
 
+                if (outputs.size() > 1)
+                    err("Cannot specify multiple --output arguments when creating patches!");
+
                 List<File> clean = options.valuesOf(cleanO);
                 List<File> dirty = options.valuesOf(createO);
                 List<String> prefixes = options.valuesOf(prefixO);
@@ -74,7 +123,64 @@ public class ConsoleTool {
                 log("  Pack200: " + pack200);
                 log("  Legacy:  " + legacy);
 
-                Generator gen = new Generator(output).pack200(pack200).legacy(legacy);
+                Generator gen = new Generator(output).pack200(pack200).legacy(legacy).memoryBudget(budget);
+
+                if (options.has(budgetO))
+                    log("  Budget:  " + budget);
+
+                if (options.has(codecO)) {
+                    Codec codec = Codec.byName(options.valueOf(codecO));
+                    log("  Codec:   " + codec.getName());
+                    gen.codec(codec);
+                }
+
+                if (options.has(differO)) {
+                    Differ differ = Differ.byName(options.valueOf(differO));
+                    log("  Differ:  " + differ.getName());
+                    gen.differ(differ);
+                }
+
+                if (options.has(orderO)) {
+                    log("  Order:   " + options.valueOf(orderO));
+                    gen.order(LoadOrder.load(options.valueOf(orderO)));
+                }
+
+                if (options.has(shardO)) {
+                    String shard = options.valueOf(shardO);
+                    int idx = shard.indexOf('/');
+                    if (idx == -1)
+                        err("Invalid --shard " + shard + ", expected index/count");
+                    log("  Shard:   " + shard);
+                    gen.shard(Integer.parseInt(shard.substring(0, idx)), Integer.parseInt(shard.substring(idx + 1)));
+                }
+
+                if (options.has(threadsO)) {
+                    log("  Threads: " + options.valueOf(threadsO));
+                    gen.threads(options.valueOf(threadsO));
+                }
+
+                if (options.has(verifyO)) {
+                    log("  Verify:  true");
+                    gen.verify(true);
+                }
+
+                if (options.has(cleanOrderO)) {
+                    if (options.has(orderO) || options.has(shardO))
+                        err("Cannot specify --clean-order with --order or --shard");
+                    log("  Clean Order: true");
+                    gen.cleanOrder(true);
+                }
+
+                if (options.has(resourcesO)) {
+                    if (legacy)
+                        err("Cannot specify --resources with --legacy");
+                    log("  Resources: true");
+                    gen.resources(true);
+                    if (options.has(resThresholdO))
+                        gen.resourceThreshold(options.valueOf(resThresholdO));
+                    if (options.has(resRatioO))
+                        gen.resourceRatio(options.valueOf(resRatioO));
+                }
 
                 if (clean.size() > 1 || dirty.size() > 1 || prefixes.size() > 1) {
                     if (clean.size() != dirty.size() || dirty.size() != prefixes.size()) {
@@ -129,47 +235,194 @@ public class ConsoleTool {
                     gen.loadMappings(file, reverse);
                 }
 
+                prepareOutputs(outputs, false);
                 gen.create();
             } else if (options.has(applyO)) {
-                File clean_jar = options.valueOf(cleanO);
+                List<File> cleans = options.valuesOf(cleanO);
                 for (OptionSpec<?> opt : createOptions) {
                     if (options.has(opt))
                         err("Connot specify --apply and --" + opt.options().get(0) + " at the same time!");
                 }
+                if (options.has(codecO))
+                    err("Connot specify --apply and --codec at the same time, the codec is detected from the bundle!");
+                if (options.has(directoryCleanO) && !options.has(directoryO))
+                    err("Cannot specify --directory-clean without --directory");
+                if (options.has(orderO) && options.has(directoryO))
+                    err("Cannot specify --order with --directory, a directory has no entry order");
 
                 String marker = options.has(markerO) ? options.valueOf(markerO) : null;
+                LoadOrder order = options.has(orderO) ? LoadOrder.load(options.valueOf(orderO)) : null;
 
-                Patcher patcher = new Patcher(clean_jar, output)
-                    .keepData(options.has(dataO))
-                    .includeUnpatched(options.has(unpatchedO))
-                    .pack200(pack200)
-                    .store(options.has(storeO))
-                    .legacy(legacy);
+                BiFunction<File, File, Patcher> factory = (clean_jar, out) -> {
+                    Patcher patcher = new Patcher(clean_jar, out)
+                        .keepData(options.has(dataO))
+                        .includeUnpatched(options.has(unpatchedO))
+                        .pack200(pack200)
+                        .store(options.has(storeO))
+                        .cache(options.has(cacheO))
+                        .index(options.has(indexO))
+                        .directory(options.has(directoryO))
+                        .cleanDirectory(options.has(directoryCleanO))
+                        .memoryBudget(budget)
+                        .streaming(options.has(streamingO))
+                        .legacy(legacy);
 
-                if (marker != null)
-                    patcher.marker(marker);
+                    if (marker != null)
+                        patcher.marker(marker);
+                    if (options.has(levelO))
+                        patcher.level(options.valueOf(levelO));
+                    if (options.has(threadsO))
+                        patcher.threads(options.valueOf(threadsO));
+                    if (order != null)
+                        patcher.order(order);
+                    if (options.has(windowO))
+                        patcher.window(options.valueOf(windowO));
+                    return patcher;
+                };
 
-                log("Applying: ");
-                log("  Clean:     " + clean_jar);
-                log("  Output:    " + output);
+                boolean batch = cleans.size() > 1 || outputs.size() > 1;
+                log(batch ? "Batch Applying: " : "Applying: ");
+                if (!batch) {
+                    log("  Clean:     " + cleans.get(0));
+                    log("  Output:    " + output);
+                }
                 log("  KeepData:  " + options.has(dataO));
                 log("  Unpatched: " + options.has(unpatchedO));
                 log("  Pack200:   " + pack200);
                 log("  Legacy:    " + legacy);
                 log("  Store:     " + options.has(storeO));
                 log("  Marker:    " + marker);
+                log("  Cache:     " + options.has(cacheO));
+                log("  Index:     " + options.has(indexO));
+                log("  Directory: " + options.has(directoryO) + (options.has(directoryCleanO) ? " (clean)" : ""));
+                log("  Streaming: " + options.has(streamingO));
+                if (options.has(levelO))
+                    log("  Level:     " + options.valueOf(levelO));
+                if (options.has(threadsO))
+                    log("  Threads:   " + options.valueOf(threadsO));
+                if (options.has(orderO))
+                    log("  Order:     " + options.valueOf(orderO));
+                if (options.has(budgetO))
+                    log("  Budget:    " + budget);
+                if (options.has(windowO))
+                    log("  Window:    " + options.valueOf(windowO));
 
                 List<File> patches = options.valuesOf(applyO);
                 List<String> prefixes = options.valuesOf(prefixO);
+                List<String> targetPrefixes = options.valuesOf(targetPrefixO);
+
+                if (batch) {
+                    // Every bundle is decoded once, and each target picks its own prefix out of all of them
+                    if (!prefixes.isEmpty())
+                        err("Cannot specify --prefix when applying to multiple targets, it pairs with --apply bundles. Use --target-prefix to pick a patchset for each target.");
+                    if (cleans.size() != outputs.size() || (!targetPrefixes.isEmpty() && targetPrefixes.size() != cleans.size()))
+                        err("When applying to multiple targets, you must have the same number of --clean, --output, and --target-prefix arguments. Use NULL to specify an empty prefix.");
 
-                if (!prefixes.isEmpty() && patches.size() != prefixes.size())
-                    err("Patches and prefixes arguments must be paird if they are used together. Use NULL to specify an empty prefix.");
+                    BatchPatcher batcher = new BatchPatcher()
+                        .pack200(pack200)
+                        .legacy(legacy)
+                        .cache(options.has(cacheO));
 
-                for (int x = 0; x < patches.size(); x++)
-                    patcher.loadPatches(patches.get(x), x >= prefixes.size() || "NULL".equals(prefixes.get(x)) ? null : prefixes.get(x));
+                    for (File patch : patches)
+                        batcher.loadPatches(patch);
 
-                patcher.process();
+                    for (int x = 0; x < cleans.size(); x++) {
+                        String prefix = x >= targetPrefixes.size() || "NULL".equals(targetPrefixes.get(x)) ? null : targetPrefixes.get(x);
+                        log("  Target #" + x + ':');
+                        log("    Prefix: " + prefix);
+                        log("    Clean:  " + cleans.get(x));
+                        log("    Output: " + outputs.get(x));
+                        batcher.addTarget(factory.apply(cleans.get(x), outputs.get(x)), prefix);
+                    }
+
+                    prepareOutputs(outputs, options.has(directoryO));
+                    batcher.process();
+                } else {
+                    if (!targetPrefixes.isEmpty())
+                        err("Cannot specify --target-prefix with a single --clean and --output, use --prefix to pair a patchset with each --apply bundle.");
+                    if (!prefixes.isEmpty() && patches.size() != prefixes.size())
+                        err("Patches and prefixes arguments must be paird if they are used together. Use NULL to specify an empty prefix.");
 
+                    Patcher patcher = factory.apply(cleans.get(0), output);
+                    for (int x = 0; x < patches.size(); x++)
+                        patcher.loadPatches(patches.get(x), x >= prefixes.size() || "NULL".equals(prefixes.get(x)) ? null : prefixes.get(x));
+
+                    prepareOutputs(outputs, options.has(directoryO));
+                    patcher.process();
+                }
+
+            } else if (options.has(mergeO)) {
+                for (OptionSpec<?> opt : createOptions) {
+                    if (options.has(opt))
+                        err("Connot specify --merge and --" + opt.options().get(0) + " at the same time!");
+                }
+                for (OptionSpec<?> opt : applyOptions) {
+                    if (options.has(opt))
+                        err("Connot specify --merge and --" + opt.options().get(0) + " at the same time!");
+                }
+                if (outputs.size() > 1)
+                    err("Cannot specify multiple --output arguments when merging patches!");
+
+                log("Merging: ");
+                log("  Output:  " + output);
+                log("  Pack200: " + pack200);
+                log("  Legacy:  " + legacy);
+
+                Generator gen = new Generator(output).pack200(pack200).legacy(legacy).memoryBudget(budget);
+
+                if (options.has(budgetO))
+                    log("  Budget:  " + budget);
+
+                if (options.has(codecO)) {
+                    Codec codec = Codec.byName(options.valueOf(codecO));
+                    log("  Codec:   " + codec.getName());
+                    gen.codec(codec);
+                }
+
+                if (options.has(orderO)) {
+                    log("  Order:   " + options.valueOf(orderO));
+                    gen.order(LoadOrder.load(options.valueOf(orderO)));
+                }
+
+                prepareOutputs(outputs, false);
+                gen.merge(options.valuesOf(mergeO));
+            } else if (options.has(deltaO) || options.has(rebuildO)) {
+                if (options.has(deltaO) && options.has(rebuildO))
+                    err("Cannot specify --delta and --rebuild at the same time!");
+                for (OptionSpec<?> opt : createOptions) {
+                    if (options.has(opt))
+                        err("Connot specify --delta/--rebuild and --" + opt.options().get(0) + " at the same time!");
+                }
+                for (OptionSpec<?> opt : applyOptions) {
+                    if (options.has(opt))
+                        err("Connot specify --delta/--rebuild and --" + opt.options().get(0) + " at the same time!");
+                }
+                if (options.has(orderO))
+                    err("Cannot specify --order with --delta/--rebuild, the entries keep the new bundle's order");
+                if (!options.has(oldO))
+                    err("Missing required option --old");
+                if (outputs.size() > 1)
+                    err("Cannot specify multiple --output arguments with --delta/--rebuild!");
+                if (pack200)
+                    err("Bundle deltas do not support --pack200 or --legacy");
+                if (options.has(codecO))
+                    err("Cannot specify --codec with --delta/--rebuild, the new bundle's codec is always used");
+
+                File old = options.valueOf(oldO);
+                prepareOutputs(outputs, false);
+                if (options.has(deltaO)) {
+                    log("Creating Delta: ");
+                    log("  Old:     " + old);
+                    log("  New:     " + options.valueOf(deltaO));
+                    log("  Output:  " + output);
+                    BundleDelta.create(old, options.valueOf(deltaO), output);
+                } else {
+                    log("Rebuilding: ");
+                    log("  Old:     " + old);
+                    log("  Delta:   " + options.valueOf(rebuildO));
+                    log("  Output:  " + output);
+                    BundleDelta.apply(old, options.valueOf(rebuildO), output);
+                }
             } else {
                 parser.printHelpOn(System.out);
             }
@@ -179,8 +432,55 @@ public class ConsoleTool {
         }
     }
 
+    /*
+     * Only called once every argument has been validated, so a rejected command never removes anything.
+     */
+    private static void prepareOutputs(List<File> outputs, boolean directory) {
+        for (File file : outputs) {
+            // Directory outputs are updated in place, so that unchanged files are left alone
+            if (!directory && file.exists() && !file.delete())
+                err("Could not delete output file: " + file);
+
+            if (!file.getParentFile().exists() && !file.getParentFile().mkdirs())
+                err("Could not make output folders: " + file.getParentFile());
+        }
+    }
+
+    private static long parseSize(String value) {
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+        long scale = 1;
+        if (lower.endsWith("k"))
+            scale = 1024;
+        else if (lower.endsWith("m"))
+            scale = 1024 * 1024;
+        else if (lower.endsWith("g"))
+            scale = 1024 * 1024 * 1024;
+        if (scale != 1)
+            lower = lower.substring(0, lower.length() - 1);
+
+        try {
+            return Long.parseLong(lower) * scale;
+        } catch (NumberFormatException e) {
+            err("Invalid size: " + value + ", expected a number of bytes with an optional k, m, or g suffix");
+            return 0;
+        }
+    }
+
+    private static final ThreadLocal<String> LOG_TAG = new ThreadLocal<>();
+
+    /**
+     * Prefixes every line logged from the current thread, so the logs of targets processed at the same time can be told apart.
+     */
+    static void logTag(String tag) {
+        if (tag == null)
+            LOG_TAG.remove();
+        else
+            LOG_TAG.set(tag);
+    }
+
     public static void log(String message) {
-        System.out.println(message);
+        String tag = LOG_TAG.get();
+        System.out.println(tag == null ? message : tag + message);
     }
     public static void err(String message) {
         System.out.println(message);
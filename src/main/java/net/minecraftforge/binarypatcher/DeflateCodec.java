@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate, named {@code deflate[:<level>]}. Larger than LZMA, but decodes several times faster using the JDK's native zlib,
+ * which makes it a better fit when bundles are applied far more often than they are downloaded.
+ */
+public class DeflateCodec implements Codec {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int level;
+
+    public DeflateCodec() {
+        this(Deflater.BEST_COMPRESSION); // Bundles are written once, so there is no reason to save time here
+    }
+
+    public DeflateCodec(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        this.level = level;
+    }
+
+    static DeflateCodec parse(String options) {
+        try {
+            return new DeflateCodec(Integer.parseInt(options));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid deflate options: " + options, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "deflate:" + level;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decode(InputStream in) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.util.ServiceLoader;
+
+import com.nothome.delta.Delta;
+
+/**
+ * Computes the delta between a clean and dirty class file.
+ * Implementations must emit the GDiff format, so that the output can be applied by {@link Patcher}
+ * regardless of which engine generated it.
+ *
+ * Additional implementations can be registered through {@link ServiceLoader}.
+ */
+public interface Differ {
+    /**
+     * The default engine, backed by javaxdelta's rolling checksum matcher.
+     */
+    Differ XDELTA = new Differ() {
+        @Override
+        public String getName() {
+            return "xdelta";
+        }
+
+        @Override
+        public byte[] compute(byte[] clean, byte[] dirty) throws IOException {
+            return new Delta().compute(clean, dirty); // Delta keeps state while computing, so it isn't safe to share
+        }
+    };
+
+    String getName();
+
+    byte[] compute(byte[] clean, byte[] dirty) throws IOException;
+
+    public static Differ byName(String name) {
+        if (XDELTA.getName().equals(name))
+            return XDELTA;
+
+        for (Differ differ : ServiceLoader.load(Differ.class)) {
+            if (differ.getName().equals(name))
+                return differ;
+        }
+
+        throw new IllegalArgumentException("Unknown diff engine: " + name);
+    }
+}
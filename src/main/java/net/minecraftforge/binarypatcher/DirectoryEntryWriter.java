@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes entries as files under a directory, on a pool of worker threads.
+ *
+ * Files that already have the exact same content are left alone, so their timestamps don't change and
+ * incremental builds only see the classes that were actually patched differently.
+ *
+ * Once everything is written successfully, the name of every file is saved in a sidecar manifest next to the directory.
+ * Files are never deleted by default, with {@link #clean(boolean)} the files the previous run listed that are no longer
+ * part of the output are deleted. Anything else in the directory is never touched.
+ */
+public class DirectoryEntryWriter implements EntryWriter {
+    public static final String MANIFEST_EXTENSION = ".files";
+
+    private final Path root;
+    private final Path manifest;
+    private final ExecutorService executor;
+    private final int window;
+    private final ArrayDeque<Future<Boolean>> pending = new ArrayDeque<>();
+    private final Set<Path> outputs = new HashSet<>();
+    private final List<String> names = new ArrayList<>();
+    private boolean clean = false;
+    private int written = 0;
+    private int skipped = 0;
+
+    public DirectoryEntryWriter(File root, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.manifest = this.root.resolveSibling(this.root.getFileName() + MANIFEST_EXTENSION);
+        Files.createDirectories(this.root);
+        this.window = threads * 4; // Bound the number of entries held in memory while waiting to be written
+        this.executor = Jdk.newIoExecutor(threads, "DirectoryEntryWriter");
+    }
+
+    /**
+     * Deletes the files written by the previous run that this run didn't write, once it finishes successfully.
+     */
+    public DirectoryEntryWriter clean(boolean value) {
+        this.clean = value;
+        return this;
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        Path path = resolve(name);
+        if (name.endsWith("/")) {
+            Files.createDirectories(path);
+            return;
+        }
+        if (!outputs.add(path))
+            throw new IOException("Duplicate entry " + name);
+        names.add(name);
+
+        pending.add(executor.submit(() -> writeFile(path, data)));
+        while (pending.size() > window)
+            count(await(pending.poll()));
+    }
+
+    @Override
+    public void writeMarker(String name) throws IOException {
+        write(name, new byte[0]);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        drain();
+        int removed = clean ? removeStale() : 0;
+        writeManifest();
+        log("  Directory: " + written + " written, " + skipped + " unchanged, " + removed + " removed");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void drain() throws IOException {
+        while (!pending.isEmpty())
+            count(await(pending.poll()));
+    }
+
+    /*
+     * Entry names come from the clean jar and the patch bundle, so make sure neither can write outside of the output directory.
+     */
+    private Path resolve(String name) throws IOException {
+        Path path = root.resolve(name).normalize();
+        if (name.startsWith("/") || name.indexOf('\\') != -1 || !path.startsWith(root) || path.equals(root))
+            throw new IOException("Invalid entry name " + name + ", it would be written outside of " + root);
+        return path;
+    }
+
+    // Returns true if the file was written, false if it was already up to date
+    private static boolean writeFile(Path path, byte[] data) throws IOException {
+        if (Files.isRegularFile(path) && Files.size(path) == data.length && Arrays.equals(Files.readAllBytes(path), data))
+            return false;
+
+        // Written next to the target and moved over it, so a crash never leaves a truncated file that a later run has to notice
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, data);
+            move(tmp, path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return true;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+     * Only files named by the previous manifest are candidates, and they go through the same checks as entry names,
+     * so a stale or edited manifest can't delete anything outside of the directory.
+     */
+    private int removeStale() throws IOException {
+        if (!Files.isRegularFile(manifest))
+            return 0;
+
+        int removed = 0;
+        for (String name : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (name.isEmpty())
+                continue;
+            Path path = resolve(name);
+            if (!outputs.contains(path) && Files.isRegularFile(path)) {
+                Files.delete(path);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void writeManifest() throws IOException {
+        Path tmp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.write(tmp, names, StandardCharsets.UTF_8);
+        move(tmp, manifest);
+    }
+
+    private void count(boolean wrote) {
+        if (wrote)
+            written++;
+        else
+            skipped++;
+    }
+
+    private static boolean await(Future<Boolean> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing files", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write file", e.getCause());
+        }
+    }
+
+    private static void log(String message) {
+        ConsoleTool.log(message);
+    }
+}
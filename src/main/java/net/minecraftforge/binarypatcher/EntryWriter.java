@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for the entries produced by {@link Patcher#process()}.
+ * Entries must be written out in the order they are given, so that the output is reproducible.
+ */
+public interface EntryWriter extends Closeable {
+    void write(String name, byte[] data) throws IOException;
+
+    /**
+     * Writes an empty marker entry, see {@link Patcher#marker(String)}.
+     */
+    void writeMarker(String name) throws IOException;
+
+    /**
+     * Called once every entry has been written successfully, before {@link #close()}.
+     * Anything that must not happen after a failed run, such as removing old output, belongs here.
+     * Closing a writer without finishing it discards what it wrote, as far as the output allows.
+     */
+    default void finish() throws IOException {}
+}
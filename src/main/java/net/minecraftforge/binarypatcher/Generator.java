@@ -4,25 +4,36 @@
  */
 package net.minecraftforge.binarypatcher;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.Map.Entry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
@@ -31,8 +42,12 @@ import java.util.jar.Pack200.Packer;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import com.nothome.delta.GDiffPatcher;
 
 import lzma.streams.LzmaOutputStream;
+import net.minecraftforge.binarypatcher.PayloadStore.Payload;
 import net.minecraftforge.srgutils.IMappingFile;
 
 public class Generator {
@@ -45,8 +60,24 @@ public class Generator {
     private final List<PatchSet> sets = new ArrayList<>();
     private boolean pack200 = false;
     private boolean legacy = false;
+    private Differ differ = Differ.XDELTA;
+    private Codec codec = Codec.LZMA;
+    private LoadOrder order = null;
+    private boolean cleanOrder = false;
+    private int shardIndex = 0;
+    private int shardCount = 0;
+    private long memoryBudget = PayloadStore.UNLIMITED;
+    private boolean verify = false;
+    private int threads = 1;
+    private boolean resources = false;
+    private int resourceThreshold = 256;
+    private double resourceRatio = 0.75;
     private IMappingFile o2m = null;
     private IMappingFile m2o = null;
+    // Each name is only remapped once, no matter how many sets refer to it. Filled as the patches are gathered, which only happens on the calling thread
+    private final Map<String, String> srgNames = new HashMap<>(); // obf -> srg
+    private final Map<String, String> obfNames = new HashMap<>(); // srg -> obf
+    private final Map<String, String> jarNames = new HashMap<>(); // srg -> bundle entry
 
     public Generator(File output) {
         this.output = output;
@@ -85,6 +116,106 @@ public class Generator {
         return this;
     }
 
+    public Generator differ(Differ value) {
+        this.differ = value;
+        return this;
+    }
+
+    /**
+     * Sets how the bundle is compressed, anything but {@link Codec#LZMA} can only be read by Patchers that support codecs.
+     */
+    public Generator codec(Codec value) {
+        this.codec = value;
+        return this;
+    }
+
+    /**
+     * Orders the entries in the bundle by when their classes are loaded, instead of by name.
+     */
+    public Generator order(LoadOrder value) {
+        this.order = value;
+        return this;
+    }
+
+    /**
+     * Orders the entries in the bundle the same way as the clean jar, with new files last,
+     * so that {@link Patcher#streaming(boolean)} can apply it in a single pass. Can not be combined with a load order or shards.
+     */
+    public Generator cleanOrder(boolean value) {
+        this.cleanOrder = value;
+        return this;
+    }
+
+    /**
+     * Only generates patches for the classes in one shard, selected by the hash of their outer class.
+     * The output is then a raw jar that can be combined with the other shards using {@link #merge(List)}.
+     */
+    public Generator shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count)
+            throw new IllegalArgumentException("Invalid shard " + index + '/' + count);
+        this.shardIndex = index;
+        this.shardCount = count;
+        return this;
+    }
+
+    /**
+     * Also generates patches for non-class entries, such as assets and configs. Not supported by the legacy format.
+     */
+    public Generator resources(boolean value) {
+        this.resources = value;
+        return this;
+    }
+
+    /**
+     * Resources smaller than this many bytes are always stored whole, as a diff would not save anything.
+     */
+    public Generator resourceThreshold(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Invalid resource threshold: " + value);
+        this.resourceThreshold = value;
+        return this;
+    }
+
+    /**
+     * Resources are stored whole if their diff is larger than this fraction of the dirty data.
+     * Heavily changed binary files diff poorly, and applying a diff is slower than copying.
+     */
+    public Generator resourceRatio(double value) {
+        if (value <= 0)
+            throw new IllegalArgumentException("Invalid resource ratio: " + value);
+        this.resourceRatio = value;
+        return this;
+    }
+
+    /**
+     * Limits how many bytes of patch data are kept on the heap, anything past it is spilled to a temp file, see {@link PayloadStore}.
+     */
+    public Generator memoryBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Invalid memory budget: " + bytes);
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /**
+     * Applies every new patch back onto its clean data and checks that it produces the dirty data, before it is written.
+     * All failures are collected and reported together once every class has been checked.
+     */
+    public Generator verify(boolean value) {
+        this.verify = value;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used to diff, and verify, classes. Results are still written in the same order.
+     */
+    public Generator threads(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + value);
+        this.threads = value;
+        return this;
+    }
+
     /*
      * This is used when we do obfed binary patches
      * This should be the obf2srg mapping
@@ -100,6 +231,9 @@ public class Generator {
             o2m = map;
             m2o = map.reverse();
         }
+
+        srgNames.clear();
+        obfNames.clear();
     }
 
     public void loadPatches(File root) throws IOException {
@@ -133,117 +267,300 @@ public class Generator {
     }
 
     public void create() throws IOException {
-        Map<String, byte[]> binpatches = new TreeMap<>();
-        for (PatchSet set : sets) {
-            Map<String, byte[]> tmp = gatherPatches(set.clean, set.dirty);
-            if (set.prefix == null)
-                binpatches.putAll(tmp);
-            else
-                tmp.forEach((key,value) -> binpatches.put(set.prefix + '/' + key, value));
+        if (resources && legacy)
+            throw new IllegalArgumentException("Legacy patches do not support resources");
+        if (cleanOrder && (order != null || shardCount > 0))
+            throw new IllegalArgumentException("Clean jar order can not be combined with a load order or shards");
+
+        try (PayloadStore store = new PayloadStore(memoryBudget);
+             PatchQueue queue = new PatchQueue(store)) {
+            Map<String, Payload> binpatches = new TreeMap<>();
+            Map<String, Long> ranks = cleanOrder ? new HashMap<>() : null;
+            for (int x = 0; x < sets.size(); x++) {
+                PatchSet set = sets.get(x);
+                Map<String, Payload> tmp = gatherPatches(set.clean, set.dirty, queue);
+                if (ranks != null)
+                    rankByClean(ranks, tmp, set, x);
+                if (set.prefix == null)
+                    binpatches.putAll(tmp);
+                else
+                    tmp.forEach((key,value) -> binpatches.put(set.prefix + '/' + key, value));
+            }
+            queue.check();
+
+            if (shardCount > 0) {
+                // Shards are left raw, so that merging them can produce exactly what a single create would
+                log("Shard " + shardIndex + '/' + shardCount + ": " + binpatches.size() + " patches");
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                    writeJar(binpatches, out);
+                }
+            } else {
+                write(ranks == null ? binpatches : sort(binpatches, ranks));
+            }
+            logSpilled(store);
         }
+    }
 
-        byte[] data = createJar(binpatches);
-        if (pack200)
-            data = pack200(data);
-        data = lzma(data);
-        try (FileOutputStream fos = new FileOutputStream(output)) {
-            fos.write(data);
+    /**
+     * Combines the outputs of {@link #shard(int, int)} runs into a bundle, using this Generator's output settings.
+     * As long as every shard of the same count was generated from the same inputs, the result is identical to a single {@link #create()}.
+     */
+    public void merge(List<File> shards) throws IOException {
+        try (PayloadStore store = new PayloadStore(memoryBudget)) {
+            Map<String, Payload> binpatches = new TreeMap<>();
+            for (File shard : shards) {
+                log("Merging shard: " + shard);
+                try (ZipInputStream zin = new ZipInputStream(new FileInputStream(shard))) {
+                    ZipEntry entry;
+                    while ((entry = zin.getNextEntry()) != null) {
+                        if (entry.isDirectory())
+                            continue;
+                        if (binpatches.put(entry.getName(), store.put(Util.toByteArray(zin))) != null)
+                            throw new IOException("Duplicate patch " + entry.getName() + " in " + shard + ", shards must not overlap");
+                    }
+                }
+            }
+            write(binpatches);
+            logSpilled(store);
         }
     }
 
-    private void gatherClasses(Map<String, Set<String>> entries, ZipFile archive) {
+    private void write(Map<String, Payload> binpatches) throws IOException {
+        Map<String, Payload> entries = order == null ? binpatches : sort(binpatches, loadRanks(binpatches));
+        // The jar is streamed straight into the codec, so the uncompressed bundle is never held in memory as a whole
+        try (OutputStream out = Codec.openOutput(codec, new BufferedOutputStream(new FileOutputStream(output)))) {
+            if (pack200) {
+                ByteArrayOutputStream jar = new ByteArrayOutputStream();
+                writeJar(entries, jar);
+                out.write(pack200(jar.toByteArray()));
+            } else {
+                writeJar(entries, out);
+            }
+        }
+        log(codec.getName() + ": " + output.length() + " bytes");
+    }
+
+    private void logSpilled(PayloadStore store) {
+        if (store.getSpilled() > 0)
+            log("Spilled " + store.getSpilled() + " bytes of patches to disk");
+    }
+
+    private boolean inShard(String outer) {
+        // String.hashCode is specified, so every node agrees on which shard a class belongs to
+        return shardCount == 0 || (outer.hashCode() & Integer.MAX_VALUE) % shardCount == shardIndex;
+    }
+
+    private Map<String, Long> loadRanks(Map<String, Payload> binpatches) throws IOException {
+        Map<String, Long> ranks = new HashMap<>();
+        for (Entry<String, Payload> e : binpatches.entrySet()) {
+            // The entry names use the srg names, so read the obf name back out of the patch itself
+            Patch patch = Patch.from(new ByteArrayInputStream(e.getValue().get()), this.legacy);
+            ranks.put(e.getKey(), (long)Math.min(order.getRank(patch.obf), order.getRank(patch.srg)));
+        }
+        return ranks;
+    }
+
+    /*
+     * Ranks each patch by the position of its entry in the clean jar, patch sets stay in the order they were added.
+     * Patcher reads the clean jar front to back, which is the local header order, but that matches the central directory for any normal jar.
+     */
+    private void rankByClean(Map<String, Long> ranks, Map<String, Payload> binpatches, PatchSet set, int index) throws IOException {
+        Map<String, Integer> positions = new HashMap<>();
+        try (ZipFile zip = new ZipFile(set.clean)) {
+            for (Enumeration<? extends ZipEntry> itr = zip.entries(); itr.hasMoreElements();)
+                positions.putIfAbsent(itr.nextElement().getName(), positions.size());
+        }
+        for (Entry<String, Payload> e : binpatches.entrySet()) {
+            Patch patch = Patch.from(new ByteArrayInputStream(e.getValue().get()), this.legacy);
+            String name = e.getKey().endsWith(PatchBundle.RESOURCE_EXTENSION) ? patch.obf : patch.obf + ".class";
+            long position = positions.getOrDefault(name, Integer.MAX_VALUE); // New files go last
+            ranks.put(set.prefix == null ? e.getKey() : set.prefix + '/' + e.getKey(), ((long)index << 32) | position);
+        }
+    }
+
+    private Map<String, Payload> sort(Map<String, Payload> binpatches, Map<String, Long> ranks) {
+        List<Entry<String, Payload>> entries = new ArrayList<>(binpatches.entrySet());
+        entries.sort(Comparator.comparingLong(e -> ranks.get(e.getKey()))); // Stable, so unknown classes stay sorted by name
+
+        Map<String, Payload> ret = new LinkedHashMap<>();
+        for (Entry<String, Payload> e : entries)
+            ret.put(e.getKey(), e.getValue());
+        return ret;
+    }
+
+    private void gatherClasses(List<String> entries, ZipFile archive) {
         for (Enumeration<? extends ZipEntry> itr = archive.entries(); itr.hasMoreElements();) {
             String name = itr.nextElement().getName();
-            if (!name.endsWith(".class"))
-                continue;
-            name = name.substring(0, name.length() - 6);
-            int idx = name.indexOf('$');
-            String outer = idx == -1 ? name : name.substring(0, idx);
-            entries.computeIfAbsent(outer, k -> new HashSet<>()).add(name);
+            if (name.endsWith(".class"))
+                entries.add(name.substring(0, name.length() - 6));
         }
     }
 
-    private Map<String, byte[]> gatherPatches(File clean, File dirty) throws IOException {
-        Map<String, byte[]> binpatches = new TreeMap<>();
+    private Map<String, Payload> gatherPatches(File clean, File dirty, PatchQueue queue) throws IOException {
+        Map<String, Payload> binpatches = new TreeMap<>();
         try (ZipFile zclean = new ZipFile(clean);
             ZipFile zdirty = new ZipFile(dirty)){
 
-            // This is a map of all classes to their 'sibling' classes.
+            // This is an index of all classes and their 'sibling' classes.
             // Specifically all outer classes grouped with their inner classes.
             // This is done because when we modify a class, it could have durastic changes to the synthetic inner classes.
             // So we jus assume that if we patch one thing, we patch all inner classes
-            Map<String, Set<String>> entries = new HashMap<>();
-            gatherClasses(entries, zclean);
-            gatherClasses(entries, zdirty);
+            List<String> names = new ArrayList<>(zclean.size() + zdirty.size());
+            gatherClasses(names, zclean);
+            gatherClasses(names, zdirty);
+            ClassIndex entries = ClassIndex.of(names);
 
             log("Creating patches:");
             log("  Clean: " + clean);
             log("  Dirty: " + dirty);
             if (patches.isEmpty()) { //No patches, assume full set!
-                for (String cls : entries.keySet()) {
+                for (int group = 0; group < entries.getGroupCount(); group++) {
+                    String cls = entries.getOuter(group);
+                    if (!inShard(cls))
+                        continue;
                     // We use the srg name to make the names in the archive readable.
                     // Doesn't actually effect the functionality, so is optional
-                    String srg = o2m == null ? cls : o2m.remapClass(cls);
+                    String srg = toSrg(cls);
                     byte[] cleanData = getData(zclean, cls);
                     byte[] dirtyData = getData(zdirty, cls);
-                    if (!Arrays.equals(cleanData, dirtyData)) {
-                        byte[] patch = process(cls, srg, cleanData, dirtyData);
-                        if (patch != null)
-                            binpatches.put(toJarName(srg), patch);
-                    }
+                    if (!Arrays.equals(cleanData, dirtyData))
+                        queue.add(binpatches, jarName(srg), cls, srg, cleanData, dirtyData, false);
                 }
             } else {
                 for (String path : patches) {
                     // Map the patch dev name, to prodution name
-                    String obf = m2o == null ? path : m2o.remapClass(path);
+                    String obf = toObf(path);
+                    if (!inShard(ClassIndex.getOuter(obf)))
+                        continue;
 
-                    if (entries.containsKey(obf)) {
-                        for (String cls : entries.get(obf)) {
-                            String srg = o2m == null ? cls : o2m.remapClass(cls);
+                    int group = entries.getGroup(obf);
+                    if (group >= 0) {
+                        for (int id : entries.getMembers(group)) {
+                            String cls = entries.getName(id);
+                            String srg = toSrg(cls);
 
                             byte[] cleanData = getData(zclean, cls);
                             byte[] dirtyData = getData(zdirty, cls);
-                            if (!Arrays.equals(cleanData, dirtyData)) {
-                                byte[] patch = process(cls, srg, cleanData, dirtyData);
-                                if (patch != null)
-                                    binpatches.put(toJarName(srg), patch);
-                            }
+                            if (!Arrays.equals(cleanData, dirtyData))
+                                queue.add(binpatches, jarName(srg), cls, srg, cleanData, dirtyData, false);
                         }
                     } else {
                         log("  Failed: no source for patch? " + path + " " + obf);
                     }
                 }
             }
+
+            if (resources)
+                gatherResourcePatches(binpatches, queue, zclean, zdirty);
+
+            queue.drain();
         }
         return binpatches;
     }
 
+    private void gatherResources(Set<String> entries, ZipFile archive) {
+        for (Enumeration<? extends ZipEntry> itr = archive.entries(); itr.hasMoreElements();) {
+            ZipEntry entry = itr.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory() || name.endsWith(".class") || Util.isSignature(name) || "meta-inf/manifest.mf".equals(name.toLowerCase(Locale.ROOT)))
+                continue; // The manifest and signatures are rewritten by the patcher, so never patch them
+            if (inShard(name))
+                entries.add(name);
+        }
+    }
+
+    private void gatherResourcePatches(Map<String, Payload> binpatches, PatchQueue queue, ZipFile zclean, ZipFile zdirty) throws IOException {
+        Set<String> names = new TreeSet<>();
+        gatherResources(names, zclean);
+        gatherResources(names, zdirty);
+
+        for (String name : names) {
+            byte[] cleanData = getResource(zclean, name);
+            byte[] dirtyData = getResource(zdirty, name);
+            if (!Arrays.equals(cleanData, dirtyData))
+                queue.add(binpatches, toResourceName(name), name, name, cleanData, dirtyData, true);
+        }
+    }
+
+    private Patch createResourcePatch(String name, byte[] clean, byte[] dirty) throws IOException {
+        if (dirty.length >= resourceThreshold) {
+            Patch patch = Patch.from(name, name, clean, dirty, this.differ);
+            if (patch.data.length <= dirty.length * resourceRatio)
+                return patch;
+        }
+        return Patch.raw(name, name, clean, dirty);
+    }
+
+    private String toSrg(String cls) {
+        return o2m == null ? cls : srgNames.computeIfAbsent(cls, o2m::remapClass);
+    }
+
+    private String toObf(String cls) {
+        return m2o == null ? cls : obfNames.computeIfAbsent(cls, m2o::remapClass);
+    }
+
+    private String jarName(String srg) {
+        return jarNames.computeIfAbsent(srg, this::toJarName);
+    }
+
     // public for testing
     public String toJarName(String original) {
-        return original.replace('/', '.') + ".binpatch";
+        return original.replace('/', '.') + PatchBundle.CLASS_EXTENSION;
+    }
+
+    // Resources keep their path, so that directories stay readable in the bundle
+    public String toResourceName(String original) {
+        return original + PatchBundle.RESOURCE_EXTENSION;
     }
 
     private byte[] getData(ZipFile zip, String cls) throws IOException {
         ZipEntry entry = zip.getEntry(cls + ".class");
         return entry == null ? EMPTY_DATA : Util.toByteArray(zip.getInputStream(entry));
     }
+    private byte[] getResource(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        return entry == null ? EMPTY_DATA : Util.toByteArray(zip.getInputStream(entry));
+    }
+
     // public for testing
     public byte[] createJar(Map<String, byte[]> patches) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (JarOutputStream zout = new JarOutputStream(out)) {
+        try (PayloadStore store = new PayloadStore(PayloadStore.UNLIMITED)) {
+            Map<String, Payload> payloads = new LinkedHashMap<>();
+            for (Entry<String, byte[]> e : patches.entrySet())
+                payloads.put(e.getKey(), store.put(e.getValue()));
+            writeJar(payloads, out);
+        }
+        return out.toByteArray();
+    }
+
+    // Leaves the stream open, so that the jar can be written into a codec
+    private void writeJar(Map<String, Payload> patches, OutputStream out) throws IOException {
+        OutputStream shield = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (JarOutputStream zout = new JarOutputStream(shield)) {
             zout.setLevel(Deflater.NO_COMPRESSION); //Don't deflate-compress, otherwise LZMA won't be as effective
-            for (Entry<String, byte[]> e : patches.entrySet()) {
+            for (Entry<String, Payload> e : patches.entrySet()) {
                 ZipEntry entry = new ZipEntry(e.getKey());
                 entry.setTime(ConsoleTool.ZIPTIME);
                 zout.putNextEntry(entry);
-                zout.write(e.getValue());
+                zout.write(e.getValue().get());
                 zout.closeEntry();
             }
         }
-        return out.toByteArray();
     }
 
     private byte[] pack200(byte[] data) throws IOException {
+        Util.checkPack200();
         try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(data));
              ByteArrayOutputStream out = new ByteArrayOutputStream()) {
 
@@ -278,21 +595,173 @@ public class Generator {
         return ret;
     }
 
-    private byte[] process(String obf, String srg, byte[] clean, byte[] dirty) throws IOException {
-        if (srg.equals(obf))
-            log("  Processing " + srg);
-        else
-            log("  Processing " + srg + "(" + obf + ")");
+    // public for testing
+    public byte[] encode(byte[] data) throws IOException {
+        if (codec == Codec.LZMA)
+            return lzma(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream stream = Codec.openOutput(codec, out)) {
+            stream.write(data);
+        }
+        byte[] ret = out.toByteArray();
+        log(codec.getName() + ": " + data.length + " -> " + ret.length);
+        return ret;
+    }
+
+    private Result process(String obf, String srg, byte[] clean, byte[] dirty, boolean resource) throws IOException {
+        Patch patch = resource ? createResourcePatch(obf, clean, dirty) : Patch.from(obf, srg, clean, dirty, this.differ);
+        byte[] data = patch.toBytes(this.legacy);
+        String failure = verify && data != null ? verify(data, clean, dirty) : null;
+        return new Result(patch.checksum(clean), patch.checksum(dirty), patch.raw, data, failure);
+    }
 
-        Patch patch = Patch.from(obf, srg, clean, dirty);
-        log("    Clean: " + Integer.toHexString(patch.checksum(clean)) + " Dirty: " + Integer.toHexString(patch.checksum(dirty)));
-        return patch.toBytes(this.legacy);
+    /*
+     * Reads the serialized patch back and applies it the same way Patcher would, so the header is checked along with the diff.
+     * Returns a description of the problem, or null if the patch is good.
+     */
+    private String verify(byte[] data, byte[] clean, byte[] dirty) {
+        try {
+            Patch patch = Patch.from(new ByteArrayInputStream(data), this.legacy);
+            if (patch.exists != (clean.length != 0))
+                return "Expected exists to be " + (clean.length != 0) + " but was " + patch.exists;
+            if (clean.length != 0 && patch.checksum != patch.checksum(clean))
+                return "Expected checksum " + Integer.toHexString(patch.checksum(clean)) + " but was " + Integer.toHexString(patch.checksum);
+
+            byte[] result;
+            if (patch.data.length == 0)
+                result = EMPTY_DATA;
+            else if (patch.raw)
+                result = patch.data;
+            else
+                result = new GDiffPatcher().patch(clean, patch.data); // Has a scratch buffer, so one per verification
+            if (!Arrays.equals(result, dirty))
+                return "Patched data does not match, expected " + dirty.length + " bytes with checksum " + Integer.toHexString(patch.checksum(dirty)) +
+                    " but got " + result.length + " bytes with checksum " + Integer.toHexString(patch.checksum(result));
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return "Failed to apply: " + e;
+        }
     }
 
     private void log(String message) {
         ConsoleTool.log(message);
     }
 
+    /*
+     * Creates patches on a pool of worker threads when threads > 1, and collects them in the order they were added,
+     * so the bundle is the same regardless of thread count. Only a bounded number of classes are in flight at once.
+     */
+    private class PatchQueue implements Closeable {
+        private final PayloadStore store;
+        private final ExecutorService executor;
+        private final int window;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private final List<String> failures = new ArrayList<>();
+        private int verified = 0;
+
+        private PatchQueue(PayloadStore store) {
+            this.store = store;
+            this.window = threads * 4;
+            this.executor = threads == 1 ? null : Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "Generator");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private void add(Map<String, Payload> target, String key, String obf, String srg, byte[] clean, byte[] dirty, boolean resource) throws IOException {
+            Pending entry = new Pending(target, key, obf, srg);
+            if (executor == null) {
+                complete(entry, process(obf, srg, clean, dirty, resource));
+            } else {
+                entry.future = executor.submit(() -> process(obf, srg, clean, dirty, resource));
+                pending.add(entry);
+                while (pending.size() > window)
+                    complete(pending.poll());
+            }
+        }
+
+        private void drain() throws IOException {
+            while (!pending.isEmpty())
+                complete(pending.poll());
+        }
+
+        private void complete(Pending entry) throws IOException {
+            try {
+                complete(entry, entry.future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while creating patches", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to create patch for " + entry.srg, e.getCause());
+            }
+        }
+
+        private void complete(Pending entry, Result result) throws IOException {
+            if (entry.srg.equals(entry.obf))
+                log("  Processing " + entry.srg);
+            else
+                log("  Processing " + entry.srg + "(" + entry.obf + ")");
+            log("    Clean: " + Integer.toHexString(result.clean) + " Dirty: " + Integer.toHexString(result.dirty) + (result.raw ? " Raw" : ""));
+
+            if (result.failure != null) {
+                log("    Verify failed: " + result.failure);
+                failures.add(entry.srg + ": " + result.failure);
+            } else if (verify && result.data != null) {
+                verified++;
+            }
+
+            if (result.data != null)
+                entry.target.put(entry.key, store.put(result.data));
+        }
+
+        private void check() throws IOException {
+            if (!verify)
+                return;
+            if (!failures.isEmpty())
+                throw new IOException("Verification failed for " + failures.size() + " patches:\n  " + String.join("\n  ", failures));
+            log("Verified " + verified + " patches");
+        }
+
+        @Override
+        public void close() {
+            if (executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    private static class Pending {
+        private final Map<String, Payload> target;
+        private final String key;
+        private final String obf;
+        private final String srg;
+        private Future<Result> future;
+
+        private Pending(Map<String, Payload> target, String key, String obf, String srg) {
+            this.target = target;
+            this.key = key;
+            this.obf = obf;
+            this.srg = srg;
+        }
+    }
+
+    private static class Result {
+        private final int clean;
+        private final int dirty;
+        private final boolean raw;
+        private final byte[] data;
+        private final String failure;
+
+        private Result(int clean, int dirty, boolean raw, byte[] data, String failure) {
+            this.clean = clean;
+            this.dirty = dirty;
+            this.raw = raw;
+            this.data = data;
+            this.failure = failure;
+        }
+    }
+
     private static class PatchSet {
         private final String prefix;
         private final File clean;
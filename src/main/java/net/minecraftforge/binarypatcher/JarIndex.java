@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Sidecar index for a clean jar, storing the location of every entry and the checksum {@link Patch} expects for it.
+ *
+ * The index is keyed by the jar's size, modification time, and a hash of its central directory. So once it is built,
+ * later runs against the same jar can verify patch checksums without hashing the class data, and read entries directly
+ * without scanning through the jar. Zip64 jars are not supported, and are simply not indexed.
+ */
+public class JarIndex {
+    public static final String EXTENSION = ".index";
+    private static final int MAGIC = 0x42504958; // BPIX
+    private static final int VERSION = 2;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final File jar;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName = new HashMap<>();
+
+    private JarIndex(File jar, List<Entry> entries) {
+        this.jar = jar;
+        this.entries = Collections.unmodifiableList(entries);
+        for (Entry entry : entries)
+            byName.putIfAbsent(entry.name, entry);
+    }
+
+    /**
+     * Loads the index for a jar, building and saving it if it is missing or out of date.
+     *
+     * @return The index, or null if the jar can't be indexed.
+     */
+    public static JarIndex load(File jar) throws IOException {
+        File file = new File(jar.getPath() + EXTENSION);
+        byte[] hash = hashDirectory(jar);
+        if (hash == null) {
+            log("  Can not index " + jar + ", zip64 jars are not supported");
+            return null;
+        }
+
+        if (file.exists()) {
+            JarIndex ret = read(jar, file, hash);
+            if (ret != null) {
+                log("  Using index " + file);
+                return ret;
+            }
+            log("  Index is out of date " + file);
+        }
+
+        JarIndex ret = build(jar);
+        try {
+            ret.write(file, hash);
+        } catch (IOException e) {
+            log("  Failed to write index " + file + ": " + e.getMessage());
+        }
+        return ret;
+    }
+
+    /**
+     * @return Every file entry, in the order they are stored in the jar.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        return byName.get(name);
+    }
+
+    public RandomAccessFile open() throws IOException {
+        return new RandomAccessFile(jar, "r");
+    }
+
+    /**
+     * Reads an entry's data directly from its local header, without going through the rest of the jar.
+     * The data is checked against the size and CRC from the central directory, as nothing else verifies it.
+     *
+     * @return The data, or null if it doesn't match the central directory.
+     */
+    public byte[] read(RandomAccessFile raf, Entry entry) throws IOException {
+        byte[] header = new byte[30];
+        raf.seek(entry.offset);
+        raf.readFully(header);
+        if (getInt(header, 0) != LOCAL_HEADER)
+            throw new IOException("Invalid local header for " + entry.name + " in " + jar);
+        raf.skipBytes(getShort(header, 26) + getShort(header, 28));
+
+        byte[] compressed = new byte[entry.compressed];
+        raf.readFully(compressed);
+        if (entry.method == METHOD_STORED)
+            return entry.compressed == entry.size && crc(compressed) == entry.crc ? compressed : null;
+        if (entry.method != METHOD_DEFLATED)
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name + " in " + jar);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] ret = new byte[entry.size];
+            int len = 0;
+            while (len < ret.length) {
+                int read = inflater.inflate(ret, len, ret.length - len);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                len += read;
+            }
+            if (len != ret.length || !inflater.finished() || crc(ret) != entry.crc)
+                return null;
+            return ret;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid data for " + entry.name + " in " + jar, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static JarIndex build(File jar) throws IOException {
+        log("  Indexing " + jar);
+        List<Entry> entries = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(jar, "r")) {
+            byte[] dir = readDirectory(raf);
+            int pos = 0;
+            while (pos + 46 <= dir.length && getInt(dir, pos) == CENTRAL_HEADER) {
+                int method = getShort(dir, pos + 10);
+                int crc = getInt(dir, pos + 16);
+                int compressed = getInt(dir, pos + 20);
+                int size = getInt(dir, pos + 24);
+                int nameLen = getShort(dir, pos + 28);
+                int extraLen = getShort(dir, pos + 30);
+                int commentLen = getShort(dir, pos + 32);
+                long offset = getInt(dir, pos + 42) & 0xFFFFFFFFL;
+                String name = new String(dir, pos + 46, nameLen, StandardCharsets.UTF_8);
+                pos += 46 + nameLen + extraLen + commentLen;
+
+                if (!name.endsWith("/"))
+                    entries.add(new Entry(name, method, offset, compressed, size, crc, 0));
+            }
+        }
+
+        entries.sort((a, b) -> Long.compare(a.offset, b.offset));
+
+        JarIndex tmp = new JarIndex(jar, entries);
+        List<Entry> ret = new ArrayList<>(entries.size());
+        try (RandomAccessFile raf = tmp.open()) {
+            for (Entry entry : entries) {
+                byte[] data = tmp.read(raf, entry);
+                if (data == null)
+                    throw new IOException("Corrupt data for " + entry.name + " in " + jar);
+                ret.add(new Entry(entry.name, entry.method, entry.offset, entry.compressed, entry.size, entry.crc, Patch.checksumOf(data)));
+            }
+        }
+        return new JarIndex(jar, ret);
+    }
+
+    /*
+     * Layout:
+     *   int    magic
+     *   byte   version
+     *   long   jar size
+     *   long   jar modified time
+     *   byte[] central directory hash, length prefixed
+     *   int    entry count
+     *   entries { utf name, byte method, long offset, int compressed size, int size, int crc, int checksum }
+     */
+    private void write(File file, byte[] hash) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(jar.length());
+            out.writeLong(jar.lastModified());
+            out.writeByte(hash.length);
+            out.write(hash);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.name);
+                out.writeByte(entry.method);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.compressed);
+                out.writeInt(entry.size);
+                out.writeInt(entry.crc);
+                out.writeInt(entry.checksum);
+            }
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static JarIndex read(File jar, File file, byte[] hash) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION)
+                return null;
+            if (in.readLong() != jar.length() || in.readLong() != jar.lastModified())
+                return null;
+            byte[] cached = new byte[in.readByte() & 0xFF];
+            in.readFully(cached);
+            if (!Arrays.equals(hash, cached))
+                return null;
+
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int x = 0; x < count; x++)
+                entries.add(new Entry(in.readUTF(), in.readByte() & 0xFF, in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+            return new JarIndex(jar, entries);
+        } catch (IOException e) {
+            log("  Failed to read index " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private static byte[] hashDirectory(File jar) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(jar, "r")) {
+            byte[] dir = readDirectory(raf);
+            if (dir == null)
+                return null;
+            return MessageDigest.getInstance("SHA-1").digest(dir);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * Finds the end of central directory record, and reads the whole central directory.
+     * Returns null for zip64 jars, which store their real offsets elsewhere.
+     */
+    private static byte[] readDirectory(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        int tail = (int)Math.min(length, 0xFFFF + 22);
+        byte[] buf = new byte[tail];
+        raf.seek(length - tail);
+        raf.readFully(buf);
+
+        for (int pos = tail - 22; pos >= 0; pos--) {
+            if (getInt(buf, pos) != END_HEADER)
+                continue;
+            int count = getShort(buf, pos + 10);
+            long size = getInt(buf, pos + 12) & 0xFFFFFFFFL;
+            long offset = getInt(buf, pos + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL)
+                return null;
+            if (offset + size > length)
+                throw new IOException("Invalid central directory");
+
+            byte[] ret = new byte[(int)size];
+            raf.seek(offset);
+            raf.readFully(ret);
+            return ret;
+        }
+        throw new IOException("Could not find central directory");
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int)crc.getValue();
+    }
+
+    private static int getShort(byte[] buf, int pos) {
+        return (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] buf, int pos) {
+        return getShort(buf, pos) | getShort(buf, pos + 2) << 16;
+    }
+
+    private static void log(String message) {
+        ConsoleTool.log(message);
+    }
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long offset;
+        public final int compressed;
+        public final int size;
+        public final int crc;
+        public final int checksum;
+
+        private Entry(String name, int method, long offset, int compressed, int size, int crc, int checksum) {
+            this.name = name;
+            this.method = method;
+            this.offset = offset;
+            this.compressed = compressed;
+            this.size = size;
+            this.crc = crc;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order that classes are loaded at runtime, used to lay out jars so that startup reads them mostly sequentially.
+ *
+ * The file can be a plain list of class names, or the output of {@code -verbose:class}.
+ * Both the Java 8 {@code [Loaded a.b.C from ...]} format and the unified logging
+ * {@code [...][class,load] a.b.C source: ...} format are understood, any other line is ignored.
+ */
+public class LoadOrder {
+    public static final int UNKNOWN = Integer.MAX_VALUE;
+
+    private final Map<String, Integer> ranks = new HashMap<>();
+
+    public static LoadOrder load(File file) throws IOException {
+        return of(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    public static LoadOrder of(List<String> lines) {
+        LoadOrder ret = new LoadOrder();
+        for (String line : lines) {
+            String cls = parse(line.trim());
+            if (cls != null)
+                ret.ranks.putIfAbsent(cls, ret.ranks.size());
+        }
+        return ret;
+    }
+
+    private static String parse(String line) {
+        if (line.isEmpty() || line.charAt(0) == '#')
+            return null;
+
+        String name;
+        if (line.startsWith("[Loaded ")) {
+            int end = line.indexOf(' ', 8);
+            name = end == -1 ? null : line.substring(8, end);
+        } else if (line.startsWith("[")) {
+            int idx = line.indexOf("[class,load] ");
+            if (idx == -1)
+                return null;
+            idx += 13;
+            int end = line.indexOf(' ', idx);
+            name = line.substring(idx, end == -1 ? line.length() : end);
+            if (name.endsWith(":")) // 'opened: <path>' lines for the jars classes come from
+                return null;
+        } else {
+            name = line.indexOf(' ') == -1 ? line : null;
+        }
+
+        if (name == null || name.isEmpty())
+            return null;
+        if (name.endsWith(".class"))
+            name = name.substring(0, name.length() - 6);
+        return name.replace('.', '/');
+    }
+
+    public int size() {
+        return ranks.size();
+    }
+
+    /**
+     * @param cls Internal class name, such as {@code a/b/C}
+     * @return The position the class was first loaded at, or {@link #UNKNOWN}.
+     */
+    public int getRank(String cls) {
+        Integer ret = ranks.get(cls);
+        return ret == null ? UNKNOWN : ret;
+    }
+
+    /**
+     * Ranks a jar entry, the manifest is kept first so that {@link java.util.jar.JarInputStream} can still find it,
+     * classes follow in load order, and everything else is left at the end.
+     */
+    public int getEntryRank(String name) {
+        if (name.equalsIgnoreCase("META-INF/") || name.equalsIgnoreCase("META-INF/MANIFEST.MF"))
+            return -1;
+        if (name.endsWith(".class"))
+            return getRank(name.substring(0, name.length() - 6));
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import lzma.sdk.lzma.Decoder;
+import lzma.sdk.lzma.Encoder;
+import lzma.streams.LzmaEncoderWrapper;
+import lzma.streams.LzmaInputStream;
+import lzma.streams.LzmaOutputStream;
+
+/**
+ * LZMA with a configurable preset and dictionary size, named {@code lzma:<preset>[:<dictionary bits>]}.
+ *
+ * Larger dictionaries find matches further apart, at the cost of the decoder having to allocate the whole dictionary.
+ * Presets follow the LZMA SDK levels, from 0 (fastest) to 9 (smallest).
+ */
+public class LzmaCodec implements Codec {
+    private static final int[] DICTIONARY_BITS = { 16, 18, 20, 22, 23, 24, 25, 25, 26, 26 };
+
+    private final int preset;
+    private final int dictionaryBits;
+
+    // The default stream, exactly as the builder has always written it
+    LzmaCodec() {
+        this.preset = -1;
+        this.dictionaryBits = -1;
+    }
+
+    public LzmaCodec(int preset) {
+        this(preset, preset < 0 || preset >= DICTIONARY_BITS.length ? -1 : DICTIONARY_BITS[preset]);
+    }
+
+    public LzmaCodec(int preset, int dictionaryBits) {
+        if (preset < 0 || preset > 9)
+            throw new IllegalArgumentException("Invalid LZMA preset: " + preset);
+        if (dictionaryBits < 12 || dictionaryBits > 28)
+            throw new IllegalArgumentException("Invalid LZMA dictionary size: 2^" + dictionaryBits);
+        this.preset = preset;
+        this.dictionaryBits = dictionaryBits;
+    }
+
+    static LzmaCodec parse(String options) {
+        try {
+            int idx = options.indexOf(':');
+            if (idx == -1)
+                return new LzmaCodec(Integer.parseInt(options));
+            return new LzmaCodec(Integer.parseInt(options.substring(0, idx)), Integer.parseInt(options.substring(idx + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid LZMA options: " + options, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return preset == -1 ? "lzma" : "lzma:" + preset + ':' + dictionaryBits;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream out) throws IOException {
+        if (preset == -1)
+            return new LzmaOutputStream.Builder(out).useEndMarkerMode(true).build();
+
+        Encoder encoder = new Encoder();
+        encoder.setDictionarySize(1 << dictionaryBits);
+        encoder.setNumFastBytes(preset < 7 ? 32 : 64);
+        encoder.setMatchFinder(preset < 3 ? Encoder.EMatchFinderTypeBT2 : Encoder.EMatchFinderTypeBT4);
+        encoder.setLcLpPb(3, 0, 2);
+        encoder.setEndMarkerMode(true);
+        return new LzmaOutputStream(out, new LzmaEncoderWrapper(encoder));
+    }
+
+    @Override
+    public InputStream decode(InputStream in) {
+        return new LzmaInputStream(in, new Decoder());
+    }
+}
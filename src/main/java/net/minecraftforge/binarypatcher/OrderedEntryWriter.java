@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Buffers every entry, and writes them to the wrapped writer in {@link LoadOrder} once finished.
+ * Entries the order doesn't know about keep their original relative order.
+ */
+public class OrderedEntryWriter implements EntryWriter {
+    private final EntryWriter out;
+    private final LoadOrder order;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<String> markers = new ArrayList<>();
+
+    public OrderedEntryWriter(EntryWriter out, LoadOrder order) {
+        this.out = out;
+        this.order = order;
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        entries.add(new Entry(name, data, order.getEntryRank(name)));
+    }
+
+    @Override
+    public void writeMarker(String name) throws IOException {
+        markers.add(name);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flush();
+        out.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Nothing is passed on without finish, so the wrapped writer discards its output as well
+        entries.clear();
+        markers.clear();
+        out.close();
+    }
+
+    private void flush() throws IOException {
+        try {
+            entries.sort(Comparator.comparingInt(e -> e.rank)); // List.sort is stable
+            for (Entry entry : entries)
+                out.write(entry.name, entry.data);
+            for (String marker : markers)
+                out.writeMarker(marker);
+        } finally {
+            entries.clear();
+            markers.clear();
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final byte[] data;
+        private final int rank;
+
+        private Entry(String name, byte[] data, int rank) {
+            this.name = name;
+            this.data = data;
+            this.rank = rank;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Deflates entries on a pool of worker threads, and writes the zip records in the order they were given.
+ *
+ * Every entry is deflated on its own with a fresh {@link Deflater}, so the output only depends on the
+ * entries, the compression level, and the zlib implementation, never on thread count or scheduling.
+ * Sizes and checksums are always known before an entry is written, so no data descriptors are used.
+ * The jar is deleted if the writer is closed without being finished.
+ */
+public class ParallelZipWriter implements EntryWriter {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final File output;
+    private final CountingOutputStream out;
+    private final ExecutorService executor;
+    private final int level;
+    private final int window;
+    private final ArrayDeque<Future<Record>> pending = new ArrayDeque<>();
+    private final List<Record> written = new ArrayList<>();
+    private final Set<String> names = new HashSet<>(); // Rejects duplicates the same way ZipOutputStream does
+    private final int dosTime;
+    private boolean finished = false;
+
+    public ParallelZipWriter(File output, int level, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        this.output = output;
+        this.out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        this.level = level;
+        this.window = threads * 4; // Bound the number of deflated entries held in memory while waiting to be written
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "ParallelZipWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dosTime = toDosTime(ConsoleTool.ZIPTIME);
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        submit(name, data, level);
+    }
+
+    @Override
+    public void writeMarker(String name) throws IOException {
+        submit(name, new byte[0], Deflater.NO_COMPRESSION);
+    }
+
+    private void submit(String name, byte[] data, int level) throws IOException {
+        if (!names.add(name))
+            throw new ZipException("duplicate entry: " + name);
+        pending.add(executor.submit(() -> compress(name, data, level)));
+        while (pending.size() > window)
+            writeRecord(await(pending.poll()));
+    }
+
+    @Override
+    public void finish() throws IOException {
+        while (!pending.isEmpty())
+            writeRecord(await(pending.poll()));
+        writeCentralDirectory();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            executor.shutdownNow();
+            out.close();
+        } finally {
+            if (!finished && output.exists() && !output.delete())
+                throw new IOException("Failed to delete unfinished output file: " + output);
+        }
+    }
+
+    private static Record compress(String name, byte[] data, int level) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        if (level == Deflater.NO_COMPRESSION || data.length == 0)
+            return new Record(name, METHOD_STORED, crc.getValue(), data.length, data);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int len = deflater.deflate(buf);
+                bos.write(buf, 0, len);
+            }
+            return new Record(name, METHOD_DEFLATED, crc.getValue(), data.length, bos.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static Record await(Future<Record> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing entries", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress entry", e.getCause());
+        }
+    }
+
+    private void writeRecord(Record record) throws IOException {
+        record.offset = out.count;
+        writeInt(LOCAL_HEADER);
+        writeShort(20);                   // Version needed to extract
+        writeShort(FLAG_UTF8);
+        writeShort(record.method);
+        writeInt(dosTime);
+        writeInt((int)record.crc);
+        writeInt(record.data.length);     // Compressed size
+        writeInt(record.size);            // Uncompressed size
+        writeShort(record.name.length);
+        writeShort(0);                    // Extra length
+        out.write(record.name);
+        out.write(record.data);
+
+        record.data = null; // Only the header information is needed for the central directory
+        written.add(record);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = out.count;
+        for (Record record : written) {
+            boolean zip64 = record.offset >= ZIP64_MAGIC;
+            writeInt(CENTRAL_HEADER);
+            writeShort(zip64 ? 45 : 20);  // Version made by
+            writeShort(zip64 ? 45 : 20);  // Version needed to extract
+            writeShort(FLAG_UTF8);
+            writeShort(record.method);
+            writeInt(dosTime);
+            writeInt((int)record.crc);
+            writeInt(record.compressed);
+            writeInt(record.size);
+            writeShort(record.name.length);
+            writeShort(zip64 ? 12 : 0);   // Extra length
+            writeShort(0);                // Comment length
+            writeShort(0);                // Disk number
+            writeShort(0);                // Internal attributes
+            writeInt(0);                  // External attributes
+            writeInt(zip64 ? (int)ZIP64_MAGIC : (int)record.offset);
+            out.write(record.name);
+            if (zip64) {
+                writeShort(0x0001);       // Zip64 extended information
+                writeShort(8);
+                writeLong(record.offset);
+            }
+        }
+        long end = out.count;
+        long size = end - start;
+
+        if (written.size() >= 0xFFFF || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+            writeInt(ZIP64_END_HEADER);
+            writeLong(44);                // Size of the remaining record
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);                  // This disk
+            writeInt(0);                  // Disk with the central directory
+            writeLong(written.size());
+            writeLong(written.size());
+            writeLong(size);
+            writeLong(start);
+
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0);
+            writeLong(end);
+            writeInt(1);                  // Total disks
+        }
+
+        writeInt(END_HEADER);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(written.size(), 0xFFFF));
+        writeShort(Math.min(written.size(), 0xFFFF));
+        writeInt((int)Math.min(size, ZIP64_MAGIC));
+        writeInt((int)Math.min(start, ZIP64_MAGIC));
+        writeShort(0);                    // Comment length
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value);
+        writeShort(value >>> 16);
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int)value);
+        writeInt((int)(value >>> 32));
+    }
+
+    /*
+     * Matches what ZipEntry.setTime does, the time is stored in the local time zone.
+     * ConsoleTool forces that to GMT so the output doesn't depend on the user's settings.
+     */
+    private static int toDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16 |
+               date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    private static class Record {
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final int size;
+        private final int compressed;
+        private byte[] data;
+        private long offset;
+
+        private Record(String name, int method, long crc, int size, byte[] data) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressed = data.length;
+            this.data = data;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
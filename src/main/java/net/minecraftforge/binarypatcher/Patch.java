@@ -11,30 +11,41 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.Adler32;
 
-import com.nothome.delta.Delta;
-
 public class Patch {
     private static final byte[] EMPTY_DATA = new byte[0];
-    private static final Delta DELTA = new Delta();
+    private static final int FLAG_RAW = 1;
 
     public final String obf; //TODO: Getters if I care...
     public final String srg;
     public final boolean exists;
     public final int checksum;
     public final byte[] data;
+    public final boolean raw; // Data is the full dirty content instead of a diff
 
-    private Patch(String obf, String srg, boolean exists, int checksum, byte[] data) {
+    private Patch(String obf, String srg, boolean exists, int checksum, byte[] data, boolean raw) {
         this.obf = obf;
         this.srg = srg;
         this.exists = exists;
         this.checksum = checksum;
         this.data = data;
+        this.raw = raw;
     }
 
     public static Patch from(String obf, String srg, byte[] clean, byte[] dirty) throws IOException {
-        byte[] diff = dirty.length == 0 ? EMPTY_DATA : DELTA.compute(clean, dirty);
+        return from(obf, srg, clean, dirty, Differ.XDELTA);
+    }
+    public static Patch from(String obf, String srg, byte[] clean, byte[] dirty, Differ differ) throws IOException {
+        byte[] diff = dirty.length == 0 ? EMPTY_DATA : differ.compute(clean, dirty);
+        int checksum = clean.length == 0 ? 0 : adlerHash(clean);
+        return new Patch(obf, srg, clean.length != 0, checksum, diff, false);
+    }
+
+    /**
+     * Creates a patch that replaces the clean data with the full dirty data, for when a diff wouldn't be worth it.
+     */
+    public static Patch raw(String obf, String srg, byte[] clean, byte[] dirty) {
         int checksum = clean.length == 0 ? 0 : adlerHash(clean);
-        return new Patch(obf, srg, clean.length != 0, checksum, diff);
+        return new Patch(obf, srg, clean.length != 0, checksum, dirty, dirty.length != 0);
     }
 
     public byte[] toBytes() {
@@ -45,11 +56,16 @@ public class Patch {
         DataOutputStream out = new DataOutputStream(bos);
         try {
             if (legacy) {
-                if (data.length == 0)
-                    return null; //Legacy doesn't support deleting, so just skip
+                if (data.length == 0 || raw)
+                    return null; //Legacy doesn't support deleting or raw data, so just skip
                 out.writeUTF(obf);
                 out.writeUTF(obf.replace('/', '.'));
                 out.writeUTF(srg.replace('/', '.'));
+            } else if (raw) {
+                out.writeByte(2); //Version 2 adds flags, only used when needed so normal patches stay readable by older patchers
+                out.writeUTF(obf);
+                out.writeUTF(srg);
+                out.writeByte(FLAG_RAW);
             } else {
                 out.writeByte(1); //Version -- Future compatibility
                 out.writeUTF(obf);
@@ -73,6 +89,7 @@ public class Patch {
     public static Patch from(InputStream stream, boolean legacy) throws IOException {
         DataInputStream input = new DataInputStream(stream);
         int version = -1;
+        int flags = 0;
         String obf, srg;
 
         if (legacy) {
@@ -81,10 +98,12 @@ public class Patch {
             srg = input.readUTF().replace('.', '/');
         } else {
             version = input.readByte() & 0xFF;
-            if (version != 1)
+            if (version != 1 && version != 2)
                 throw new IOException("Unsupported patch format: " + version);
             obf = input.readUTF();
             srg = input.readUTF();
+            if (version >= 2)
+                flags = input.readByte() & 0xFF;
         }
 
         boolean exists = input.readBoolean();
@@ -93,7 +112,7 @@ public class Patch {
         byte[] data = new byte[length];
         input.readFully(data);
 
-        return new Patch(obf, srg, exists, checksum, data);
+        return new Patch(obf, srg, exists, checksum, data, (flags & FLAG_RAW) != 0);
     }
 
     public String getName() {
@@ -104,7 +123,12 @@ public class Patch {
     }
 
     public int checksum(byte[] data) {
-        return data.length == 0 ? 0 : adlerHash(data); //This is a instance method so we can check the version and do the proper hash, for now just adler
+        return checksumOf(data); //This is a instance method so we can check the version and do the proper hash, for now just adler
+    }
+
+    // The hash used by the current patch format, for precomputing checksums before any patch is loaded
+    static int checksumOf(byte[] data) {
+        return data.length == 0 ? 0 : adlerHash(data);
     }
 
     private static int adlerHash(byte[] input) {
@@ -0,0 +1,542 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Pack200;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The decoded contents of a patch bundle, every {@code .binpatch} and {@code .respatch} entry in the order it was stored.
+ *
+ * Decoding can optionally be cached next to the bundle, in an uncompressed indexed file that is keyed
+ * by the bundle's hash. Later loads of the same bundle read the entries they need straight out of the cache,
+ * instead of decoding the {@link Codec} stream.
+ */
+public class PatchBundle {
+    public static final String CLASS_EXTENSION = ".binpatch";
+    public static final String RESOURCE_EXTENSION = ".respatch";
+    public static final String CACHE_EXTENSION = ".cache";
+    private static final int CACHE_MAGIC = 0x42504348; // BPCH
+    private static final int CACHE_VERSION = 3; // 2: Includes resource patches, 3: Long offsets
+
+    private final List<Entry> entries;
+
+    private PatchBundle(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public static PatchBundle load(File file, boolean pack200, boolean legacy) throws IOException {
+        return load(file, pack200, legacy, false);
+    }
+
+    public static PatchBundle load(File file, boolean pack200, boolean legacy, boolean cache) throws IOException {
+        return load(file, pack200, legacy, cache, null);
+    }
+
+    /**
+     * @param prefix Only entries under this prefix are parsed, or null for every entry. The cache always covers the whole bundle.
+     */
+    public static PatchBundle load(File file, boolean pack200, boolean legacy, boolean cache, String prefix) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        read(file, pack200, legacy, cache, prefix, entries::add);
+        return new PatchBundle(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads every entry of a bundle without parsing it, in the order they are stored. Pack200 bundles are not supported.
+     *
+     * @param codec Receives the codec the bundle was written with, if not null
+     */
+    static Map<String, byte[]> readRaw(byte[] bundle, Codec[] codec) throws IOException {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(Codec.openInput(new ByteArrayInputStream(bundle), codec))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory())
+                    ret.put(entry.getName(), Util.toByteArray(zip));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decodes a bundle one entry at a time, without keeping the entries.
+     *
+     * @param prefix Only entries under this prefix are parsed, or null for every entry
+     */
+    public static void read(File file, boolean pack200, boolean legacy, String prefix, EntryConsumer consumer) throws IOException {
+        read(file, pack200, legacy, false, prefix, consumer);
+    }
+
+    /**
+     * Reads a bundle one entry at a time, without keeping the entries, from the cache if asked to.
+     * A missing or out of date cache is rebuilt as the bundle is decoded, so only one entry is on the heap either way.
+     *
+     * @param prefix Only entries under this prefix are parsed, or null for every entry. The cache always covers the whole bundle.
+     */
+    public static void read(File file, boolean pack200, boolean legacy, boolean cache, String prefix, EntryConsumer consumer) throws IOException {
+        if (!cache) {
+            decode(file, pack200, legacy, prefix, null, consumer);
+            return;
+        }
+
+        File cacheFile = new File(file.getPath() + CACHE_EXTENSION);
+        byte[] key = cacheKey(file, pack200, legacy);
+
+        if (cacheFile.exists()) {
+            if (readCache(cacheFile, key, legacy, prefix, consumer))
+                return;
+            log("  Cache is out of date " + cacheFile);
+        }
+
+        try (CacheWriter writer = new CacheWriter(cacheFile, key)) {
+            decode(file, pack200, legacy, prefix, writer, consumer);
+            writer.finish();
+        }
+    }
+
+    /**
+     * Opens a bundle to be pulled one entry at a time, in the order they are stored.
+     * Only the entry being read is held in memory, pack200 bundles are unpacked on a background thread as they are read.
+     *
+     * @param prefix Only entries under this prefix are parsed, or null for every entry
+     */
+    public static Reader open(File file, boolean pack200, boolean legacy, String prefix) throws IOException {
+        return new StreamReader(file, pack200, legacy, prefix, null);
+    }
+
+    /**
+     * @return A reader over the already decoded entries, so that loaded bundles can be used wherever a {@link #open(File, boolean, boolean)} can.
+     */
+    public Reader reader() {
+        Iterator<Entry> itr = entries.iterator();
+        return new Reader() {
+            @Override
+            public Entry next() {
+                return itr.hasNext() ? itr.next() : null;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    private static void decode(File file, boolean pack200, boolean legacy, String prefix, CacheWriter cache, EntryConsumer consumer) throws IOException {
+        try (StreamReader reader = new StreamReader(file, pack200, legacy, prefix, cache)) {
+            Entry entry;
+            while ((entry = reader.next()) != null)
+                consumer.accept(entry);
+        }
+    }
+
+    /*
+     * The key covers everything that changes how the bundle decodes, not just its contents.
+     */
+    private static byte[] cacheKey(File file, boolean pack200, boolean legacy) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            try (InputStream input = new FileInputStream(file)) {
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = input.read(buf)) != -1)
+                    digest.update(buf, 0, len);
+            }
+            digest.update((byte)((pack200 ? 1 : 0) | (legacy ? 2 : 0)));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * Only the index is checked up front, so a stale or damaged cache still falls back to the bundle before any entry was passed on.
+     * Then each wanted entry is read on its own, so entries outside of the prefix are never touched.
+     * The entries are copied onto the heap either way, so this uses positional reads rather than mapping the file.
+     *
+     * @return false if the cache can't be used, in which case nothing was passed to the consumer
+     */
+    private static boolean readCache(File cacheFile, byte[] key, boolean legacy, String prefix, EntryConsumer consumer) throws IOException {
+        boolean started = false;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataInputStream in = new DataInputStream(counter);
+
+            if (in.readInt() != CACHE_MAGIC || in.readByte() != CACHE_VERSION)
+                return false;
+            byte[] cached = new byte[in.readByte() & 0xFF];
+            in.readFully(cached);
+            if (!Arrays.equals(key, cached))
+                return false;
+
+            int count = in.readInt();
+            String[] names = new String[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            long total = 0;
+            for (int x = 0; x < count; x++) {
+                names[x] = in.readUTF();
+                offsets[x] = in.readLong();
+                lengths[x] = in.readInt();
+                total = Math.max(total, offsets[x] + lengths[x]);
+            }
+
+            long start = counter.count;
+            if (channel.size() - start < total)
+                throw new EOFException("Cache is truncated");
+
+            log("  Using cache " + cacheFile);
+            started = true;
+            for (int x = 0; x < count; x++) {
+                if (!inPrefix(names[x], prefix))
+                    continue;
+                ByteBuffer buf = ByteBuffer.allocate(lengths[x]);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, start + offsets[x] + buf.position()) == -1)
+                        throw new EOFException("Cache is truncated");
+                }
+                consumer.accept(new Entry(names[x], Patch.from(new ByteArrayInputStream(buf.array()), legacy)));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Falling back now would pass the entries that were already read a second time
+            if (started)
+                throw e;
+            log("  Failed to read cache " + cacheFile + ": " + e);
+            return false;
+        }
+    }
+
+    private static boolean inPrefix(String name, String prefix) {
+        return prefix == null || name.startsWith(prefix + '/');
+    }
+
+    private static void log(String message) {
+        ConsoleTool.log(message);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    public interface Reader extends Closeable {
+        /**
+         * @return The next entry, or null once every entry has been read.
+         */
+        Entry next() throws IOException;
+    }
+
+    /*
+     * Writes the cache as the bundle is decoded, one raw entry at a time. The index comes first but isn't known until the end,
+     * so the data goes to its own temp file and is copied in behind the index once every entry was seen.
+     * The cache is purely an optimization, so any failure just drops it rather than failing the whole run.
+     *
+     * Layout:
+     *   int     magic
+     *   byte    version
+     *   byte[]  key, length prefixed
+     *   int     entry count
+     *   entries { utf name, long offset, int length }, offset is relative to the start of the data
+     *   data    raw patch entries, exactly as they were in the bundle
+     */
+    private static class CacheWriter implements Closeable {
+        private final File cacheFile;
+        private final byte[] key;
+        private final File data;
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private OutputStream out;
+
+        private CacheWriter(File cacheFile, byte[] key) {
+            this.cacheFile = cacheFile;
+            this.key = key;
+            this.data = new File(cacheFile.getPath() + ".data.tmp");
+            try {
+                this.out = new BufferedOutputStream(new FileOutputStream(data));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void add(String name, byte[] entry) {
+            if (out == null)
+                return;
+            try {
+                out.write(entry);
+                names.add(name);
+                lengths.add(entry.length);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void finish() {
+            if (out == null)
+                return;
+            File tmp = new File(cacheFile.getPath() + ".tmp");
+            try {
+                out.close();
+                out = null;
+                try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    index.writeInt(CACHE_MAGIC);
+                    index.writeByte(CACHE_VERSION);
+                    index.writeByte(key.length);
+                    index.write(key);
+                    index.writeInt(names.size());
+                    long offset = 0; // The decoded bundle can be past 2GB even though each entry is an array
+                    for (int x = 0; x < names.size(); x++) {
+                        index.writeUTF(names.get(x));
+                        index.writeLong(offset);
+                        index.writeInt(lengths.get(x));
+                        offset += lengths.get(x);
+                    }
+                    Files.copy(data.toPath(), index);
+                }
+
+                try {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                fail(e);
+                tmp.delete();
+            }
+        }
+
+        private void fail(IOException e) {
+            log("  Failed to write cache " + cacheFile + ": " + e.getMessage());
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing was written that we still want
+                }
+                out = null;
+            }
+            data.delete();
+        }
+    }
+
+    /*
+     * Nothing in a bundle is signed and only the patch entries are wanted, so this reads it as a plain zip
+     * rather than having JarInputStream look for the manifest and signatures.
+     */
+    private static class StreamReader implements Reader {
+        private final InputStream input;
+        private final Unpacker unpacker;
+        private final ZipInputStream zip;
+        private final boolean legacy;
+        private final String prefix;
+        private final CacheWriter cache;
+
+        // The cache receives every patch entry, even the ones outside of the prefix
+        private StreamReader(File file, boolean pack200, boolean legacy, String prefix, CacheWriter cache) throws IOException {
+            this.legacy = legacy;
+            this.prefix = prefix;
+            this.cache = cache;
+            this.input = new FileInputStream(file);
+            try {
+                InputStream stream = Codec.openInput(input);
+                if (pack200) {
+                    Util.checkPack200();
+                    this.unpacker = new Unpacker(stream);
+                    stream = this.unpacker.in;
+                } else {
+                    this.unpacker = null;
+                }
+                this.zip = new ZipInputStream(stream);
+            } catch (IOException | RuntimeException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            try {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    String name = entry.getName();
+                    if (!name.endsWith(CLASS_EXTENSION) && !name.endsWith(RESOURCE_EXTENSION))
+                        continue;
+                    if (cache == null) {
+                        if (inPrefix(name, prefix))
+                            return new Entry(name, Patch.from(zip, legacy));
+                    } else {
+                        byte[] data = Util.toByteArray(zip);
+                        cache.add(name, data);
+                        if (inPrefix(name, prefix))
+                            return new Entry(name, Patch.from(new ByteArrayInputStream(data), legacy));
+                    }
+                }
+            } catch (IOException e) {
+                // A failed unpack closes the pipe early, so report why rather than the truncated zip
+                if (unpacker != null && unpacker.error != null)
+                    throw new IOException("Failed to unpack pack200 bundle", unpacker.error);
+                throw e;
+            }
+            if (unpacker != null)
+                unpacker.finish();
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                input.close();
+            } finally {
+                if (unpacker != null)
+                    unpacker.in.close();
+            }
+        }
+    }
+
+    /*
+     * Pack200 can only unpack into a JarOutputStream, so it runs on its own thread and is read back through a pipe,
+     * instead of unpacking the whole bundle into memory first.
+     */
+    private static class Unpacker implements Runnable {
+        private final InputStream packed;
+        private final PipedInputStream in = new PipedInputStream(1 << 16);
+        private final PipedOutputStream out;
+        private final Thread thread;
+        private volatile Throwable error;
+
+        private Unpacker(InputStream packed) throws IOException {
+            this.packed = packed;
+            this.out = new PipedOutputStream(in);
+            this.thread = new Thread(this, "PatchBundle-Unpacker");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                JarOutputStream jar = new JarOutputStream(out);
+                Pack200.newUnpacker().unpack(packed, jar);
+                jar.close();
+            } catch (Throwable e) {
+                // Only close the pipe, finishing the jar would make a partial unpack look complete
+                error = e;
+                try {
+                    out.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+        }
+
+        /*
+         * The zip reader stops at the central directory, so read the rest of it before waiting for the
+         * unpacker, otherwise it could block forever writing into a full pipe.
+         */
+        private void finish() throws IOException {
+            byte[] buf = new byte[8192];
+            try {
+                while (in.read(buf) != -1);
+            } catch (IOException e) {
+                check();
+                throw e;
+            }
+            check();
+        }
+
+        private void check() throws IOException {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while unpacking bundle", e);
+            }
+            if (error != null)
+                throw new IOException("Failed to unpack pack200 bundle", error);
+        }
+    }
+
+    public static class Entry {
+        public final String name;
+        public final Patch patch;
+
+        private Entry(String name, Patch patch) {
+            this.name = name;
+            this.patch = patch;
+        }
+
+        /**
+         * @return True if this patches a non-class resource, keyed by its full path instead of the class name.
+         */
+        public boolean isResource() {
+            return name.endsWith(RESOURCE_EXTENSION);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ret = super.read();
+            if (ret != -1)
+                count++;
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int ret = super.read(b, off, len);
+            if (ret > 0)
+                count += ret;
+            return ret;
+        }
+    }
+}
@@ -5,40 +5,33 @@
 package net.minecraftforge.binarypatcher;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
-import java.util.jar.Pack200;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import com.nothome.delta.GDiffPatcher;
 
-import lzma.sdk.lzma.Decoder;
-import lzma.streams.LzmaInputStream;
-
 public class Patcher {
     public static final String EXTENSION = ".lzma";
     private static final byte[] EMPTY_DATA = new byte[0];
-    private static final GDiffPatcher PATCHER = new GDiffPatcher();
 
-    private Map<String, List<Patch>> patches = new TreeMap<>();
+    private final GDiffPatcher patcher = new GDiffPatcher(); // Has a scratch buffer, so not safe to share between Patchers running in parallel
+    private final PatchTable patches = new PatchTable();
+    private final PatchTable resources = new PatchTable(); // Keyed by the full path in the jar
 
     private final File clean;
     private final File output;
@@ -48,6 +41,18 @@ public class Patcher {
     private boolean legacy = false;
     private boolean store = false;
     private String marker = null;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int threads = 1;
+    private LoadOrder order = null;
+    private boolean cache = false;
+    private boolean index = false;
+    private boolean directory = false;
+    private boolean cleanDirectory = false;
+    private long memoryBudget = PayloadStore.UNLIMITED;
+    private PayloadStore payloads = null;
+    private boolean streaming = false;
+    private int window = 64;
+    private final List<Source> sources = new ArrayList<>(); // Bundles waiting to be streamed, in load order
 
     public Patcher(File clean, File output) {
         this.clean = clean;
@@ -94,164 +99,620 @@ public class Patcher {
         return this;
     }
 
+    /**
+     * Sets the deflate level used for the output jar, ignored if {@link #store(boolean)} is set.
+     */
+    public Patcher level(int value) {
+        if (value != Deflater.DEFAULT_COMPRESSION && (value < Deflater.NO_COMPRESSION || value > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Invalid compression level: " + value);
+        this.level = value;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used to deflate the output jar.
+     * Anything above one switches to {@link ParallelZipWriter}, which is reproducible run to run and across
+     * thread counts, but lays out its zip records differently than the single threaded writer.
+     */
+    public Patcher threads(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + value);
+        this.threads = value;
+        return this;
+    }
+
+    /**
+     * Lays out the output jar in class load order, rather than the order of the clean jar. Directory outputs ignore it.
+     * This requires holding the whole output in memory until it is written.
+     */
+    public Patcher order(LoadOrder value) {
+        this.order = value;
+        return this;
+    }
+
+    /**
+     * Caches decoded bundles next to the bundle file, see {@link PatchBundle}.
+     */
+    public Patcher cache(boolean value) {
+        this.cache = value;
+        return this;
+    }
+
+    /**
+     * Keeps a sidecar {@link JarIndex} next to the clean jar, so that later runs don't need to hash or scan it.
+     */
+    public Patcher index(boolean value) {
+        this.index = value;
+        return this;
+    }
+
+    /**
+     * Writes the output as a directory of files instead of a jar, see {@link DirectoryEntryWriter}.
+     * Files are written in parallel, using at least as many threads as there are processors.
+     */
+    public Patcher directory(boolean value) {
+        this.directory = value;
+        return this;
+    }
+
+    /**
+     * For directory outputs, deletes the files the previous run wrote that are no longer part of the output.
+     */
+    public Patcher cleanDirectory(boolean value) {
+        this.cleanDirectory = value;
+        return this;
+    }
+
+    /**
+     * Limits how many bytes of patch data are kept on the heap, anything past it is spilled to a temp file, see {@link PayloadStore}.
+     * Each patch is stored as soon as it is read from the bundle or its cache. Must be set before any patches are loaded,
+     * and every patch is released once {@link #process()} finishes.
+     */
+    public Patcher memoryBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Invalid memory budget: " + bytes);
+        this.memoryBudget = bytes;
+        return this;
+    }
+
+    /**
+     * Applies bundles in a single pass alongside the clean jar, instead of loading them up front.
+     * Only the patches within the read ahead {@link #window(int)} are held in memory, so bundles must be in the same order as the clean jar,
+     * see {@link Generator#cleanOrder(boolean)}. If a patch for an existing entry is still unread once the clean jar ends, it came after its entry,
+     * so the partial output is discarded, every bundle is loaded and the jar is processed again.
+     * Must be set before any patches are loaded, and the cache and memory budget are only used if that happens.
+     */
+    public Patcher streaming(boolean value) {
+        this.streaming = value;
+        return this;
+    }
+
+    /**
+     * Sets how many patches each streamed bundle can read ahead, to find a patch that is a little out of order.
+     */
+    public Patcher window(int value) {
+        if (value < 1)
+            throw new IllegalArgumentException("Invalid read ahead window: " + value);
+        this.window = value;
+        return this;
+    }
+
     // This can be called multiple times, if patchsets are built on top of eachother.
     // They will be applied in the order that the patch files were loaded.
     public void loadPatches(File file, String prefix) throws IOException {
+        if (streaming) {
+            log("Streaming patches file: " + file);
+            sources.add(new Source(file, null, prefix));
+            return;
+        }
+        readPatches(file, prefix);
+    }
+
+    private void readPatches(File file, String prefix) throws IOException {
         log("Loading patches file: " + file);
 
-        try (InputStream input = new FileInputStream(file)) {
-            InputStream stream = new LzmaInputStream(input, new Decoder());
+        // Store each patch as it is decoded or read from the cache, so with a memory budget the whole bundle is never on the heap at once
+        PatchBundle.read(file, pack200, legacy, cache, prefix, entry -> addPatch(entry, prefix));
+    }
 
-            if (pack200) {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try (JarOutputStream jos = new JarOutputStream(bos)) {
-                    Pack200.newUnpacker().unpack(stream, jos);
-                }
-                stream = new ByteArrayInputStream(bos.toByteArray());
-            }
+    /**
+     * Adds the patches from an already loaded bundle, the {@link Patch} objects are not modified
+     * so a single bundle can be shared between any number of Patchers.
+     */
+    public void loadPatches(PatchBundle bundle, String prefix) throws IOException {
+        if (streaming)
+            sources.add(new Source(null, bundle, prefix));
+        else
+            addPatches(bundle, prefix);
+    }
 
-            JarInputStream jar = new JarInputStream(stream);
+    private void addPatches(PatchBundle bundle, String prefix) throws IOException {
+        for (PatchBundle.Entry entry : bundle.getEntries())
+            addPatch(entry, prefix);
+    }
 
-            JarEntry entry;
-            while ((entry = jar.getNextJarEntry()) != null) {
-                String name = entry.getName();
-                if (name.endsWith(".binpatch") && (prefix == null || name.startsWith(prefix + '/'))) {
-                    log("  Reading patch " + entry.getName());
-                    Patch patch = Patch.from(jar, this.legacy);
-                    log("    Checksum: " + Integer.toHexString(patch.checksum) + " Exists: " + patch.exists);
-                    patches.computeIfAbsent(patch.obf, k -> new ArrayList<>()).add(patch);
-                }
+    private void addPatch(PatchBundle.Entry entry, String prefix) throws IOException {
+        if (prefix == null || entry.name.startsWith(prefix + '/')) {
+            log("  Reading patch " + entry.name);
+            Patch patch = entry.patch;
+            log("    Checksum: " + Integer.toHexString(patch.checksum) + " Exists: " + patch.exists);
+            List<Patch> list;
+            if (memoryBudget == PayloadStore.UNLIMITED) {
+                list = new ArrayList<>(1);
+            } else {
+                if (payloads == null)
+                    payloads = new PayloadStore(memoryBudget);
+                list = new StoredPatchList(payloads);
             }
+            list.add(patch);
+            (entry.isResource() ? resources : patches).add(patch.obf, list);
         }
     }
 
+    /**
+     * Applies every loaded patch to the clean jar. The patches are released once this finishes, whether it succeeds or not,
+     * so each Patcher is only processed once.
+     */
     public void process() throws IOException {
+        try {
+            if (!sources.isEmpty()) {
+                try {
+                    processStreaming();
+                    return;
+                } catch (OutOfOrderException e) {
+                    log("  " + e.getMessage() + ", loading every patch instead");
+                }
+                for (Source source : sources) {
+                    if (source.file != null)
+                        readPatches(source.file, source.prefix);
+                    else
+                        addPatches(source.bundle, source.prefix);
+                }
+                sources.clear();
+            }
+            processPatches();
+        } finally {
+            if (payloads != null) {
+                if (payloads.getSpilled() > 0)
+                    log("  Spilled " + payloads.getSpilled() + " bytes of patches to disk");
+                payloads.close();
+                payloads = null;
+            }
+            // Stored lists can't be read once their store is closed, so drop every list instead of leaving some of them broken
+            patches.clear();
+            resources.clear();
+            sources.clear();
+        }
+    }
+
+    private void processPatches() throws IOException {
         log("Processing: " + clean);
-        if (output.exists() && !output.delete())
+        if (!directory && output.exists() && !output.delete())
             throw new IOException("Failed to delete existing output file: " + output);
 
 
-        try (ZipInputStream zclean = new ZipInputStream(new FileInputStream(clean));
-             ZipOutputStream zpatched = new ZipOutputStream(new FileOutputStream(output))) {
-            // Disable compression, this wastes space on disc, but fixes issues related to xlib-ng causing compression differences
-            if (store)
-                zpatched.setMethod(ZipOutputStream.STORED);
-
-            Set<String> processed = new HashSet<>();
-            ZipEntry entry;
-            while ((entry = zclean.getNextEntry()) != null) {
-                if (entry.getName().endsWith(".class")) {
-                    String key = entry.getName().substring(0, entry.getName().length() - 6); //String .class
-                    List<Patch> patchlist  = patches.get(key);
-                    if (patchlist != null) {
-                        processed.add(key);
-                        byte[] data = Util.toByteArray(zclean);
-                        for (int x = 0; x < patchlist.size(); x++) {
-                            Patch patch = patchlist.get(x);
-                            log("  Patching " + patch.getName() + " " + (x+1) + "/" + patchlist.size());
-                            data = patch(data, patch);
-                        }
-                        if (data.length != 0) {
-                            if (store) {
-                                Util.store(zpatched, entry.getName(), data);
-                            } else {
-                                zpatched.putNextEntry(getNewEntry(entry.getName()));
-                                zpatched.write(data);
+        JarIndex jarIndex = this.index ? JarIndex.load(clean) : null;
+
+        try (EntryWriter zpatched = openOutput()) {
+            patches.freeze();
+            resources.freeze();
+            BitSet processed = new BitSet(patches.size());
+            BitSet processedResources = new BitSet(resources.size());
+
+            boolean scan = true;
+            if (jarIndex != null && patchedOnly && !keepData) {
+                // Only patched classes are written, so read them directly instead of scanning the entire jar
+                scan = !processIndexed(zpatched, jarIndex, processed, processedResources);
+                if (scan)
+                    log("  Index does not match the data in " + clean + ", scanning the rest of it instead");
+            }
+
+            if (scan) {
+                try (ZipInputStream zclean = new ZipInputStream(new FileInputStream(clean))) {
+                    ZipEntry entry;
+                    while ((entry = zclean.getNextEntry()) != null) {
+                        int resource = entry.getName().endsWith(".class") ? -1 : resources.indexOf(entry.getName(), entry.getName().length());
+                        if (resource >= 0 && processedResources.get(resource))
+                            continue; // Already read through the index
+                        if (entry.getName().endsWith(".class")) {
+                            int id = patches.indexOf(entry.getName(), entry.getName().length() - 6); //String .class
+                            if (id >= 0 && processed.get(id)) {
+                                continue;
+                            } else if (id >= 0) {
+                                processed.set(id);
+                                JarIndex.Entry known = jarIndex == null ? null : jarIndex.getEntry(entry.getName());
+                                patchEntry(zpatched, entry.getName(), patches.get(id), Util.toByteArray(zclean), known);
+                            } else if (!patchedOnly) {
+                                log("  Copying " + entry.getName());
+                                zpatched.write(entry.getName(), Util.toByteArray(zclean));
+                            }
+                        } else if (resource >= 0) {
+                            processedResources.set(resource);
+                            JarIndex.Entry known = jarIndex == null ? null : jarIndex.getEntry(entry.getName());
+                            patchEntry(zpatched, entry.getName(), resources.get(resource), Util.toByteArray(zclean), known);
+                        } else if (keepData) {
+                            if (Util.isSignature(entry.getName())) {
+                                log("  Skipping " + entry.getName());
+                                continue;
                             }
-                        }
-                    } else if (!patchedOnly) {
-                        log("  Copying " + entry.getName());
-                        if (store) {
-                            Util.store(zpatched, entry.getName(), Util.toByteArray(zclean));
-                        } else {
-                            zpatched.putNextEntry(getNewEntry(entry.getName()));
-                            Util.copy(zclean, zpatched);
-                        }
-                    }
-                } else if (keepData) {
-                    if (Util.isSignature(entry.getName())) {
-                        log("  Skipping " + entry.getName());
-                        continue;
-                    }
 
-                    if ("meta-inf/manifest.mf".equals(entry.getName().toLowerCase(Locale.ROOT))) {
-                        log("  Fixing Manifest");
-                        Util.cleanManifest(zclean, zpatched, entry.getName(), store);
-                        continue;
-                    }
+                            if ("meta-inf/manifest.mf".equals(entry.getName().toLowerCase(Locale.ROOT))) {
+                                log("  Fixing Manifest");
+                                zpatched.write(entry.getName(), Util.cleanManifest(Util.toByteArray(zclean)));
+                                continue;
+                            }
 
-                    log("  Copying " + entry.getName());
-                    if (store) {
-                        Util.store(zpatched, entry.getName(), Util.toByteArray(zclean));
-                    } else {
-                        zpatched.putNextEntry(getNewEntry(entry.getName()));
-                        Util.copy(zclean, zpatched);
+                            log("  Copying " + entry.getName());
+                            zpatched.write(entry.getName(), Util.toByteArray(zclean));
+                        }
                     }
                 }
             }
 
             // Add new files
-            for (Entry<String, List<Patch>> e : patches.entrySet()) {
-                String key = e.getKey();
-                List<Patch> patchlist = e.getValue();
+            for (int id = processed.nextClearBit(0); id < patches.size(); id = processed.nextClearBit(id + 1))
+                patchEntry(zpatched, patches.getName(id) + ".class", patches.get(id), EMPTY_DATA, null);
+            for (int id = processedResources.nextClearBit(0); id < resources.size(); id = processedResources.nextClearBit(id + 1))
+                patchEntry(zpatched, resources.getName(id), resources.get(id), EMPTY_DATA, null);
+
+            // Adds a empty file with a specified name, this is a work around for bad launchers to don't build the classpath like the vanilla launcher does.
+            if (marker != null)
+                zpatched.writeMarker(marker);
+
+            zpatched.finish();
+         }
+    }
 
-                if (processed.contains(key))
+    /*
+     * Reads the patched entries through the index, in the order they are stored in the jar.
+     * Returns false as soon as an entry doesn't match its CRC, leaving the rest of the entries for a normal scan.
+     */
+    private boolean processIndexed(EntryWriter zpatched, JarIndex jarIndex, BitSet processed, BitSet processedResources) throws IOException {
+        try (RandomAccessFile raf = jarIndex.open()) {
+            for (JarIndex.Entry entry : jarIndex.getEntries()) {
+                boolean resource = !entry.name.endsWith(".class");
+                int id = resource ? resources.indexOf(entry.name, entry.name.length()) : patches.indexOf(entry.name, entry.name.length() - 6); //String .class
+                if (id < 0)
                     continue;
 
-                byte[] data = new byte[0];
-                for (int x = 0; x < patchlist.size(); x++) {
-                    Patch patch = patchlist.get(x);
-                    log("  Patching " + patch.getName() + " " + (x+1) + "/" + patchlist.size());
-                    data = patch(data, patch);
+                byte[] data = jarIndex.read(raf, entry);
+                if (data == null)
+                    return false;
+                (resource ? processedResources : processed).set(id);
+                patchEntry(zpatched, entry.name, (resource ? resources : patches).get(id), data, entry);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Walks the clean jar and every bundle together, each clean entry takes its patches from the front of the bundles.
+     * Patches for new files are left once the clean jar ends, and are written in the same order as processPatches would.
+     * Only the read ahead window is kept, nothing is remembered about the entries that were passed.
+     */
+    private void processStreaming() throws IOException {
+        log("Processing: " + clean + " (streaming)");
+        if (!directory && output.exists() && !output.delete())
+            throw new IOException("Failed to delete existing output file: " + output);
+
+        JarIndex jarIndex = this.index ? JarIndex.load(clean) : null;
+        List<PatchStream> streams = new ArrayList<>(sources.size());
+        try (EntryWriter zpatched = openOutput()) {
+            try {
+                for (Source source : sources)
+                    streams.add(new PatchStream(source.file != null ? PatchBundle.open(source.file, pack200, legacy, source.prefix) : source.bundle.reader(), source.prefix));
+
+                try (ZipInputStream zclean = new ZipInputStream(new FileInputStream(clean))) {
+                    ZipEntry entry;
+                    while ((entry = zclean.getNextEntry()) != null) {
+                        String name = entry.getName();
+                        List<Patch> patchlist = null;
+                        for (PatchStream stream : streams) {
+                            Patch patch = stream.take(name);
+                            if (patch != null) {
+                                if (patchlist == null)
+                                    patchlist = new ArrayList<>(streams.size());
+                                patchlist.add(patch);
+                            }
+                        }
+
+                        if (patchlist != null) {
+                            JarIndex.Entry known = jarIndex == null ? null : jarIndex.getEntry(name);
+                            patchEntry(zpatched, name, patchlist, Util.toByteArray(zclean), known);
+                        } else if (name.endsWith(".class")) {
+                            if (!patchedOnly) {
+                                log("  Copying " + name);
+                                zpatched.write(name, Util.toByteArray(zclean));
+                            }
+                        } else if (keepData) {
+                            if (Util.isSignature(name)) {
+                                log("  Skipping " + name);
+                            } else if ("meta-inf/manifest.mf".equals(name.toLowerCase(Locale.ROOT))) {
+                                log("  Fixing Manifest");
+                                zpatched.write(name, Util.cleanManifest(Util.toByteArray(zclean)));
+                            } else {
+                                log("  Copying " + name);
+                                zpatched.write(name, Util.toByteArray(zclean));
+                            }
+                        }
+                    }
                 }
-                if (data.length != 0) {
-                    if (store) {
-                        Util.store(zpatched, key + ".class", data);
-                    } else {
-                        zpatched.putNextEntry(getNewEntry(key + ".class"));
-                        zpatched.write(data);
+
+                // Add new files, classes sorted by name and then resources, the same as when the patches are loaded up front
+                Map<String, List<Patch>> added = new TreeMap<>();
+                Map<String, List<Patch>> addedResources = new TreeMap<>();
+                for (PatchStream stream : streams) {
+                    PatchBundle.Entry entry;
+                    while ((entry = stream.next()) != null) {
+                        // Every clean entry has been passed, so a patch for an existing entry that is still left came after its entry
+                        if (entry.patch.exists)
+                            throw new OutOfOrderException("Patch " + entry.name + " is after its clean entry, the bundle is not in clean jar order");
+                        Map<String, List<Patch>> target = entry.isResource() ? addedResources : added;
+                        target.computeIfAbsent(entry.patch.obf, k -> new ArrayList<>()).add(entry.patch);
                     }
                 }
+                for (Map.Entry<String, List<Patch>> entry : added.entrySet())
+                    patchEntry(zpatched, entry.getKey() + ".class", entry.getValue(), EMPTY_DATA, null);
+                for (Map.Entry<String, List<Patch>> entry : addedResources.entrySet())
+                    patchEntry(zpatched, entry.getKey(), entry.getValue(), EMPTY_DATA, null);
+            } finally {
+                for (PatchStream stream : streams)
+                    stream.reader.close();
             }
 
-            // Adds a empty file with a specified name, this is a work around for bad launchers to don't build the classpath like the vanilla launcher does.
             if (marker != null)
-                Util.store(zpatched, marker, new byte[0]);
-         }
+                zpatched.writeMarker(marker);
+
+            zpatched.finish();
+        }
+    }
+
+    private EntryWriter openOutput() throws IOException {
+        // Directories have no layout, and writing files is IO bound so it always benefits from more threads
+        if (directory) {
+            if (order != null)
+                log("  Ignoring the load order, directory outputs have no entry order");
+            return new DirectoryEntryWriter(output, Math.max(threads, Runtime.getRuntime().availableProcessors())).clean(cleanDirectory);
+        }
+
+        EntryWriter ret;
+        // Compression is disabled entirely for store, so there is nothing to gain from extra threads
+        if (threads > 1 && !store)
+            ret = new ParallelZipWriter(output, level, threads);
+        else
+            ret = new ZipEntryWriter(output, store, level);
+
+        if (order != null)
+            ret = new OrderedEntryWriter(ret, order);
+        return ret;
+    }
+
+    /*
+     * Applies every patch for a class or resource in order. If the clean entry is known to a JarIndex its checksum is already known,
+     * so only the data produced by earlier patches in the list needs to be hashed.
+     */
+    private void patchEntry(EntryWriter out, String name, List<Patch> patchlist, byte[] data, JarIndex.Entry known) throws IOException {
+        for (int x = 0; x < patchlist.size(); x++) {
+            Patch patch = patchlist.get(x);
+            log("  Patching " + patch.getName() + " " + (x+1) + "/" + patchlist.size());
+            data = patch(data, patch, x == 0 && known != null ? known.checksum : patch.checksum(data));
+        }
+        if (data.length != 0)
+            out.write(name, data);
     }
 
-    private byte[] patch(byte[] data, Patch patch) throws IOException {
+    private byte[] patch(byte[] data, Patch patch, int checksum) throws IOException {
         if (patch.exists && data.length == 0)
             throw new IOException("Patch expected " + patch.getName() + " to exist, but received empty data");
         if (!patch.exists && data.length > 0)
             throw new IOException("Patch expected " + patch.getName() + " to not exist, but received " + data.length + " bytes");
 
-        int checksum = patch.checksum(data);
         if (checksum != patch.checksum)
             throw new IOException("Patch expected " + patch.getName() + " to have the checksum " + Integer.toHexString(patch.checksum) + " but it was " + Integer.toHexString(checksum));
 
         if (patch.data.length == 0) //File removed
             return EMPTY_DATA;
+        else if (patch.raw)
+            return patch.data;
         else
-            return PATCHER.patch(data, patch.data);
+            return patcher.patch(data, patch.data);
     }
 
-    private ZipEntry getNewEntry(String name) {
-        ZipEntry ret = new ZipEntry(name);
-        ret.setTime(ConsoleTool.ZIPTIME);
-        return ret;
+    private void log(String message) {
+        ConsoleTool.log(message);
     }
 
-    private void log(String message) {
-        System.out.println(message);
+    /*
+     * Keeps patches serialized in a PayloadStore, and parses them again each time they are used.
+     */
+    private static class StoredPatchList extends AbstractList<Patch> {
+        private final PayloadStore store;
+        private final List<PayloadStore.Payload> payloads = new ArrayList<>(1);
+
+        private StoredPatchList(PayloadStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public boolean add(Patch patch) {
+            try {
+                payloads.add(store.put(patch.toBytes()));
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Patch get(int index) {
+            try {
+                return Patch.from(new ByteArrayInputStream(payloads.get(index).get()), false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return payloads.size();
+        }
+
+        private void addAll(StoredPatchList other) {
+            payloads.addAll(other.payloads);
+        }
+    }
+
+    private static class Source {
+        private final File file;
+        private final PatchBundle bundle;
+        private final String prefix;
+
+        private Source(File file, PatchBundle bundle, String prefix) {
+            this.file = file;
+            this.bundle = bundle;
+            this.prefix = prefix;
+        }
+    }
+
+    private static class OutOfOrderException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private OutOfOrderException(String message) {
+            super(message);
+        }
+    }
+
+    /*
+     * One bundle being streamed, with the patches that were read ahead while looking for an entry that wasn't next.
+     */
+    private class PatchStream {
+        private final PatchBundle.Reader reader;
+        private final String prefix;
+        private final List<PatchBundle.Entry> ahead = new ArrayList<>();
+
+        private PatchStream(PatchBundle.Reader reader, String prefix) {
+            this.reader = reader;
+            this.prefix = prefix;
+        }
+
+        // Returns the patch for a clean entry, reading ahead at most a window of patches to find it
+        private Patch take(String name) throws IOException {
+            for (int x = 0; x < ahead.size(); x++) {
+                if (name.equals(getEntryName(ahead.get(x))))
+                    return ahead.remove(x).patch;
+            }
+            while (ahead.size() < window) {
+                PatchBundle.Entry entry = read();
+                if (entry == null)
+                    return null;
+                if (name.equals(getEntryName(entry)))
+                    return entry.patch;
+                ahead.add(entry);
+            }
+            return null;
+        }
+
+        // Returns the remaining patches once the clean jar has ended
+        private PatchBundle.Entry next() throws IOException {
+            return !ahead.isEmpty() ? ahead.remove(0) : read();
+        }
+
+        private PatchBundle.Entry read() throws IOException {
+            PatchBundle.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (prefix != null && !entry.name.startsWith(prefix + '/'))
+                    continue;
+                log("  Reading patch " + entry.name);
+                log("    Checksum: " + Integer.toHexString(entry.patch.checksum) + " Exists: " + entry.patch.exists);
+                return entry;
+            }
+            return null;
+        }
+    }
+
+    private static String getEntryName(PatchBundle.Entry entry) {
+        return entry.isResource() ? entry.patch.obf : entry.patch.obf + ".class";
+    }
+
+    /*
+     * Patch lists grouped by name, in a sorted ClassIndex so that entries can be looked up without building a key for each one.
+     * Patches are queued in load order, and merged into the index the next time it is frozen, so the names are only held once.
+     */
+    private static class PatchTable {
+        private ClassIndex index = ClassIndex.of(Collections.emptyList());
+        private List<Patch>[] lists = newLists(0);
+        private final List<String> pendingNames = new ArrayList<>();
+        private final List<List<Patch>> pendingLists = new ArrayList<>();
+
+        private void add(String name, List<Patch> list) {
+            pendingNames.add(name);
+            pendingLists.add(list);
+        }
+
+        private void freeze() {
+            if (pendingNames.isEmpty())
+                return;
+
+            List<String> names = new ArrayList<>(index.size() + pendingNames.size());
+            for (int x = 0; x < index.size(); x++)
+                names.add(index.getName(x));
+            names.addAll(pendingNames);
+
+            ClassIndex frozen = ClassIndex.of(names);
+            List<Patch>[] merged = newLists(frozen.size());
+            for (int x = 0; x < index.size(); x++)
+                merged[frozen.indexOf(index.getName(x))] = lists[x];
+            for (int x = 0; x < pendingNames.size(); x++) {
+                int id = frozen.indexOf(pendingNames.get(x));
+                if (merged[id] == null)
+                    merged[id] = pendingLists.get(x);
+                else if (merged[id] instanceof StoredPatchList)
+                    ((StoredPatchList)merged[id]).addAll((StoredPatchList)pendingLists.get(x)); // Moves the payloads, instead of parsing and storing them again
+                else
+                    merged[id].addAll(pendingLists.get(x));
+            }
+
+            this.index = frozen;
+            this.lists = merged;
+            pendingNames.clear();
+            pendingLists.clear();
+        }
+
+        private void clear() {
+            index = ClassIndex.of(Collections.emptyList());
+            lists = newLists(0);
+            pendingNames.clear();
+            pendingLists.clear();
+        }
+
+        private int size() {
+            return index.size();
+        }
+
+        private String getName(int id) {
+            return index.getName(id);
+        }
+
+        private int indexOf(String name, int length) {
+            return index.indexOf(name, length);
+        }
+
+        private List<Patch> get(int id) {
+            return lists[id];
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static List<Patch>[] newLists(int size) {
+            return new List[size];
+        }
     }
 
     // Public for testing
     public Map<String, List<Patch>> getPatches() {
+        patches.freeze();
         Map<String, List<Patch>> ret = new HashMap<>();
-        patches.forEach((k,v) ->
-            ret.computeIfAbsent(k, a -> new ArrayList<>()).addAll(v)
-        );
+        for (int x = 0; x < patches.size(); x++)
+            ret.put(patches.getName(x), new ArrayList<>(patches.get(x)));
         return ret;
     }
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Holds patch payloads on the heap up to a memory budget, and spills everything past it to a temp file.
+ * Spilled payloads are read back on demand, so only the payloads currently in use need to be on the heap.
+ *
+ * The temp file is only created once the budget is exceeded, and is deleted on {@link #close()}.
+ * Payloads can be read from any thread.
+ */
+public class PayloadStore implements Closeable {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private final long budget;
+    private long used = 0;
+    private long spilled = 0;
+    private Path file;
+    private FileChannel channel;
+
+    public PayloadStore(long budget) {
+        if (budget < 0)
+            throw new IllegalArgumentException("Invalid memory budget: " + budget);
+        this.budget = budget;
+    }
+
+    public synchronized Payload put(byte[] data) throws IOException {
+        if (used + data.length <= budget) {
+            used += data.length;
+            return new Payload(this, data, -1, data.length);
+        }
+
+        if (channel == null) {
+            file = Files.createTempFile("binarypatcher", ".spill");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        long offset = spilled;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining())
+            spilled += channel.write(buf, spilled);
+        return new Payload(this, null, offset, data.length);
+    }
+
+    /**
+     * @return The number of bytes written to disk instead of kept on the heap.
+     */
+    public synchronized long getSpilled() {
+        return spilled;
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            channel = this.channel;
+        }
+        if (channel == null)
+            throw new IOException("Payload store is closed");
+
+        // Positional reads don't touch the channel's position, so they are safe alongside other reads and writes
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) == -1)
+                throw new EOFException("Spilled payload is truncated");
+        }
+        return buf.array();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public static class Payload {
+        private final PayloadStore store;
+        private final byte[] data;
+        private final long offset;
+        private final int length;
+
+        private Payload(PayloadStore store, byte[] data, long offset, int length) {
+            this.store = store;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return The payload's data, read back from disk if it was spilled. The array must not be modified.
+         */
+        public byte[] get() throws IOException {
+            return data != null ? data : store.read(offset, length);
+        }
+    }
+}
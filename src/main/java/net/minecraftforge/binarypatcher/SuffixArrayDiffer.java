@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.nothome.delta.GDiffWriter;
+
+/**
+ * A greedy exact match encoder, builds a suffix array of the clean data and at every position of the
+ * dirty data copies the longest match of at least {@code minMatch} bytes, or adds a single literal byte.
+ *
+ * Matches can start at any offset, rather than only at xdelta's checksum block boundaries, but there
+ * are no approximate matches and no lookahead, so whether the patch is smaller than {@link Differ#XDELTA}'s
+ * depends on the data. The output is plain GDiff, so nothing changes on the apply side.
+ */
+public class SuffixArrayDiffer implements Differ {
+    private static final int DEFAULT_MIN_MATCH = 8;
+
+    private final int minMatch;
+
+    public SuffixArrayDiffer() {
+        this(DEFAULT_MIN_MATCH);
+    }
+
+    public SuffixArrayDiffer(int minMatch) {
+        if (minMatch < 1)
+            throw new IllegalArgumentException("Minimum match length must be positive: " + minMatch);
+        this.minMatch = minMatch;
+    }
+
+    @Override
+    public String getName() {
+        return "suffix";
+    }
+
+    @Override
+    public byte[] compute(byte[] clean, byte[] dirty) throws IOException {
+        int[] sa = suffixArray(clean);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(dirty.length / 4 + 16);
+        try (GDiffWriter writer = new GDiffWriter(new DataOutputStream(bos))) {
+            int pos = 0;
+            while (pos < dirty.length) {
+                long match = search(sa, clean, dirty, pos);
+                int length = (int)(match >>> 32);
+                if (length >= minMatch) {
+                    writer.addCopy((int)match, length);
+                    pos += length;
+                } else {
+                    writer.addData(dirty[pos++]);
+                }
+            }
+            writer.flush();
+        }
+        return bos.toByteArray();
+    }
+
+    /*
+     * Finds the longest prefix of target[pos..] that exists in data.
+     * Returns the length in the upper 32 bits and the offset in data in the lower 32 bits.
+     */
+    private static long search(int[] sa, byte[] data, byte[] target, int pos) {
+        if (sa.length == 0)
+            return 0;
+
+        int lo = 0;
+        int hi = sa.length - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(data, sa[mid], target, pos) < 0)
+                lo = mid;
+            else
+                hi = mid;
+        }
+
+        int loLen = matchLength(data, sa[lo], target, pos);
+        int hiLen = matchLength(data, sa[hi], target, pos);
+        return loLen >= hiLen ? ((long)loLen << 32) | sa[lo] : ((long)hiLen << 32) | sa[hi];
+    }
+
+    private static int matchLength(byte[] data, int offset, byte[] target, int pos) {
+        int max = Math.min(data.length - offset, target.length - pos);
+        int len = 0;
+        while (len < max && data[offset + len] == target[pos + len])
+            len++;
+        return len;
+    }
+
+    private static int compare(byte[] data, int offset, byte[] target, int pos) {
+        int max = Math.min(data.length - offset, target.length - pos);
+        for (int x = 0; x < max; x++) {
+            int diff = (data[offset + x] & 0xFF) - (target[pos + x] & 0xFF);
+            if (diff != 0)
+                return diff;
+        }
+        return (data.length - offset) - (target.length - pos);
+    }
+
+    /*
+     * Prefix doubling with a counting sort on each pass, O(n log n).
+     * Class files are small enough that this is far cheaper than the matching itself.
+     */
+    static int[] suffixArray(byte[] data) {
+        int n = data.length;
+        int[] sa = new int[n];
+        if (n == 0)
+            return sa;
+
+        int[] rank = new int[n];
+        int[] tmp = new int[n];
+        int[] counts = new int[Math.max(256, n) + 1];
+
+        for (int x = 0; x < n; x++) {
+            rank[x] = data[x] & 0xFF;
+            counts[rank[x] + 1]++;
+        }
+        for (int x = 1; x < counts.length; x++)
+            counts[x] += counts[x - 1];
+        for (int x = 0; x < n; x++)
+            sa[counts[rank[x]]++] = x;
+
+        for (int k = 1; ; k <<= 1) {
+            // Order by the second half of each key, suffixes without one sort first
+            int p = 0;
+            for (int x = Math.max(0, n - k); x < n; x++)
+                tmp[p++] = x;
+            for (int x = 0; x < n; x++)
+                if (sa[x] >= k)
+                    tmp[p++] = sa[x] - k;
+
+            // Then stable sort by the first half
+            Arrays.fill(counts, 0);
+            for (int x = 0; x < n; x++)
+                counts[rank[x] + 1]++;
+            for (int x = 1; x < counts.length; x++)
+                counts[x] += counts[x - 1];
+            for (int x = 0; x < n; x++)
+                sa[counts[rank[tmp[x]]]++] = tmp[x];
+
+            tmp[sa[0]] = 0;
+            int classes = 1;
+            for (int x = 1; x < n; x++) {
+                int cur = sa[x];
+                int prev = sa[x - 1];
+                if (rank[cur] != rank[prev] || second(rank, cur, k) != second(rank, prev, k))
+                    classes++;
+                tmp[cur] = classes - 1;
+            }
+
+            int[] swap = rank;
+            rank = tmp;
+            tmp = swap;
+
+            if (classes == n)
+                break;
+        }
+
+        return sa;
+    }
+
+    private static int second(int[] rank, int idx, int k) {
+        return idx + k < rank.length ? rank[idx + k] : -1;
+    }
+}
@@ -21,25 +21,11 @@ import java.util.zip.ZipOutputStream;
 
 public class Util {
     public static byte[] toByteArray(InputStream stream) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        int nRead;
-        byte[] data = new byte[256];
-
-        while ((nRead = stream.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, nRead);
-        }
-
-        buffer.flush();
-        return buffer.toByteArray();
+        return Jdk.readAllBytes(stream);
     }
 
     public static void copy(InputStream source, OutputStream target) throws IOException {
-        byte[] buf = new byte[256];
-        int length;
-        while ((length = source.read(buf)) != -1) {
-            target.write(buf, 0, length);
-        }
+        Jdk.transfer(source, target);
     }
 
     public static void store(ZipOutputStream out, String name, byte[] data) throws IOException {
@@ -56,6 +42,17 @@ public class Util {
         return crc32.getValue();
     }
 
+    /**
+     * Pack200 was removed in Java 14, so it has to be checked for before any bundle that uses it is touched.
+     */
+    public static void checkPack200() throws IOException {
+        try {
+            Class.forName("java.util.jar.Pack200");
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Pack200 is not available on Java " + System.getProperty("java.version") + ", it was removed in Java 14. Use Java 13 or older, or a bundle without pack200.");
+        }
+    }
+
     public static boolean isSignature(String name) {
         if (!name.startsWith("META-INF/"))
             return false;
@@ -64,8 +61,17 @@ public class Util {
     }
 
     public static void cleanManifest(ZipInputStream zin, ZipOutputStream zout, String name, boolean store) throws IOException {
-        byte[] data = Util.toByteArray(zin);
+        byte[] data = cleanManifest(Util.toByteArray(zin));
+
+        if (store)
+            store(zout, name, data);
+        else {
+            zout.putNextEntry(getNewEntry(name));
+            zout.write(data);
+        }
+    }
 
+    public static byte[] cleanManifest(byte[] data) throws IOException {
         final Manifest manifest = new Manifest(new ByteArrayInputStream(data));
         boolean modified = false;
         for (final Iterator<Map.Entry<String, Attributes>> it = manifest.getEntries().entrySet().iterator(); it.hasNext();) {
@@ -90,12 +96,7 @@ public class Util {
             }
         }
 
-        if (store)
-            store(zout, name, data);
-        else {
-            zout.putNextEntry(getNewEntry(name));
-            zout.write(data);
-        }
+        return data;
     }
 
     private static ZipEntry getNewEntry(String name) {
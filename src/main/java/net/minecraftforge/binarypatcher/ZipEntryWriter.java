@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.FileOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes entries with a single {@link ZipOutputStream} on the calling thread.
+ * The jar is deleted if the writer is closed without being finished.
+ */
+public class ZipEntryWriter implements EntryWriter {
+    private final File output;
+    private final FileOutputStream file;
+    private final ZipOutputStream zout;
+    private final boolean store;
+    private boolean finished = false;
+
+    public ZipEntryWriter(File output, boolean store, int level) throws IOException {
+        this.output = output;
+        this.file = new FileOutputStream(output);
+        this.zout = new ZipOutputStream(file);
+        this.store = store;
+        // Disable compression, this wastes space on disc, but fixes issues related to xlib-ng causing compression differences
+        if (store)
+            zout.setMethod(ZipOutputStream.STORED);
+        else
+            zout.setLevel(level);
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        if (store) {
+            Util.store(zout, name, data);
+        } else {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(ConsoleTool.ZIPTIME);
+            zout.putNextEntry(entry);
+            zout.write(data);
+        }
+    }
+
+    @Override
+    public void writeMarker(String name) throws IOException {
+        Util.store(zout, name, new byte[0]);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        zout.close();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (finished)
+            return;
+        // Skips the central directory, the partial jar is going away anyway
+        file.close();
+        if (output.exists() && !output.delete())
+            throw new IOException("Failed to delete unfinished output file: " + output);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Java 11+ version, see the baseline in src/main/java.
+ * Uses the stream methods added in Java 9.
+ */
+final class Jdk {
+    static final int RELEASE = 11; // Lets the tests check which version the runtime picked from the jar
+
+    private Jdk() {}
+
+    static byte[] readAllBytes(InputStream stream) throws IOException {
+        return stream.readAllBytes();
+    }
+
+    static void transfer(InputStream source, OutputStream target) throws IOException {
+        source.transferTo(target);
+    }
+
+    static ExecutorService newIoExecutor(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
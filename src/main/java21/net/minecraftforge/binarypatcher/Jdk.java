@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Java 21+ version, see the baseline in src/main/java.
+ * Same as the Java 11 version, but runs I/O bound tasks on virtual threads.
+ */
+final class Jdk {
+    static final int RELEASE = 21; // Lets the tests check which version the runtime picked from the jar
+
+    private Jdk() {}
+
+    static byte[] readAllBytes(InputStream stream) throws IOException {
+        return stream.readAllBytes();
+    }
+
+    static void transfer(InputStream source, OutputStream target) throws IOException {
+        source.transferTo(target);
+    }
+
+    // Still limited to the requested threads, callers size that for what the disk or their memory can take
+    static ExecutorService newIoExecutor(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, Thread.ofVirtual().name(name + '-', 0).factory());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.BatchPatcher;
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.Patcher;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that a batch run produces exactly what separate Patcher runs on each target do
+ */
+public class BatchPatcherTest {
+    private static final String[] PREFIXES = { "client", "server", "data" };
+
+    private File dir;
+    private File[] cleans = new File[PREFIXES.length];
+    private File bundle;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("batch");
+        Random rand = new Random(42);
+        Generator gen = new Generator(bundle = new File(dir, "patches.lzma")).differ(new SuffixArrayDiffer());
+        for (int x = 0; x < PREFIXES.length; x++) {
+            Map<String, byte[]> classes = TestJars.classes(rand, 20 + x * 10);
+            cleans[x] = TestJars.write(new File(dir, PREFIXES[x] + "-clean.jar"), classes);
+            File dirty = TestJars.write(new File(dir, PREFIXES[x] + "-dirty.jar"), TestJars.modify(rand, classes));
+            gen.addSet(cleans[x], dirty, PREFIXES[x]);
+        }
+        gen.create();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private Patcher patcher(int target, String kind) {
+        return new Patcher(cleans[target], new File(dir, PREFIXES[target] + '-' + kind + ".jar")).includeUnpatched(true).keepData(true);
+    }
+
+    @Test
+    public void testMatchesSingle() throws IOException {
+        for (int x = 0; x < PREFIXES.length; x++) {
+            Patcher patcher = patcher(x, "single");
+            patcher.loadPatches(bundle, PREFIXES[x]);
+            patcher.process();
+        }
+
+        BatchPatcher batch = new BatchPatcher().loadPatches(bundle);
+        for (int x = 0; x < PREFIXES.length; x++)
+            batch.addTarget(patcher(x, "batch"), PREFIXES[x]);
+        batch.process();
+
+        for (String prefix : PREFIXES) {
+            byte[] single = Files.readAllBytes(new File(dir, prefix + "-single.jar").toPath());
+            byte[] batched = Files.readAllBytes(new File(dir, prefix + "-batch.jar").toPath());
+            Assertions.assertArrayEquals(single, batched, "Batch output differs for " + prefix);
+        }
+    }
+
+    @Test
+    public void testLogTags() throws IOException {
+        BatchPatcher batch = new BatchPatcher().loadPatches(bundle);
+        for (int x = 0; x < PREFIXES.length; x++)
+            batch.addTarget(patcher(x, "batch"), PREFIXES[x]);
+
+        PrintStream original = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            batch.process();
+        } finally {
+            System.setOut(original);
+        }
+
+        // Targets run at the same time, so everything they log must say which target it came from
+        String[] lines = new String(captured.toByteArray(), StandardCharsets.UTF_8).split("\r?\n");
+        int[] tagged = new int[PREFIXES.length];
+        for (String line : lines) {
+            if (line.startsWith("Loading patches file"))
+                continue; // Bundles are decoded once, before any target starts
+            Assertions.assertTrue(line.matches("\\[#\\d\\] .*"), "Untagged line: " + line);
+            tagged[line.charAt(2) - '0']++;
+        }
+        for (int x = 0; x < PREFIXES.length; x++)
+            Assertions.assertTrue(tagged[x] > 0, "Nothing was logged for target " + x);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.BundleDelta;
+import net.minecraftforge.binarypatcher.Codec;
+import net.minecraftforge.binarypatcher.ConsoleTool;
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that a bundle rebuilt from a delta is identical to the bundle the delta was made from
+ */
+public class BundleDeltaTest {
+    private File dir;
+    private File oldBundle;
+    private File newBundle;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("delta");
+        Random rand = new Random(42);
+        Map<String, byte[]> clean = TestJars.classes(rand, 40);
+        Map<String, byte[]> dirty = TestJars.modify(rand, clean);
+        File cleanJar = TestJars.write(new File(dir, "clean.jar"), clean);
+
+        // The next release changes a few more classes, and drops one of the old patches
+        Map<String, byte[]> next = new LinkedHashMap<>(dirty);
+        next.put("pkg0/Class0.class", TestJars.data(rand));
+        next.put("pkg1/Class1.class", clean.get("pkg1/Class1.class"));
+        next.put("added/Other.class", TestJars.data(rand));
+
+        oldBundle = create(cleanJar, TestJars.write(new File(dir, "dirty.jar"), dirty), "old.lzma", Codec.LZMA);
+        newBundle = create(cleanJar, TestJars.write(new File(dir, "next.jar"), next), "new.lzma", Codec.LZMA);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private File create(File clean, File dirty, String name, Codec codec) throws IOException {
+        File ret = new File(dir, name);
+        new Generator(ret).differ(new SuffixArrayDiffer()).codec(codec).addSet(clean, dirty, null).create();
+        return ret;
+    }
+
+    private void testRoundTrip(File oldBundle, File newBundle) throws IOException {
+        File delta = new File(dir, "delta.lzma");
+        BundleDelta.create(oldBundle, newBundle, delta);
+
+        File rebuilt = new File(dir, "rebuilt.lzma");
+        BundleDelta.apply(oldBundle, delta, rebuilt);
+        Assertions.assertArrayEquals(Files.readAllBytes(newBundle.toPath()), Files.readAllBytes(rebuilt.toPath()), "Rebuilt bundle differs");
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        testRoundTrip(oldBundle, newBundle);
+
+        // Only the index and the changed entries are shipped
+        Map<String, byte[]> delta = readBundle(new File(dir, "delta.lzma"));
+        Map<String, byte[]> previous = readBundle(oldBundle);
+        Assertions.assertTrue(delta.containsKey(BundleDelta.INDEX));
+        for (Map.Entry<String, byte[]> e : readBundle(newBundle).entrySet()) {
+            boolean changed = !previous.containsKey(e.getKey()) || !Arrays.equals(previous.get(e.getKey()), e.getValue());
+            Assertions.assertEquals(changed, delta.containsKey(e.getKey()), "Wrong delta entry for " + e.getKey());
+        }
+    }
+
+    @Test
+    public void testCodecs() throws IOException {
+        // The rebuilt bundle uses the new bundle's codec, whatever the old one was written with
+        File cleanJar = new File(dir, "clean.jar");
+        File next = create(cleanJar, new File(dir, "next.jar"), "new-deflate.bundle", Codec.byName("deflate:9"));
+        testRoundTrip(oldBundle, next);
+        testRoundTrip(next, create(cleanJar, new File(dir, "dirty.jar"), "old-none.bundle", Codec.NONE));
+    }
+
+    @Test
+    public void testWrongOldBundle() throws IOException {
+        File delta = new File(dir, "delta.lzma");
+        BundleDelta.create(oldBundle, newBundle, delta);
+        File rebuilt = new File(dir, "rebuilt.lzma");
+        Assertions.assertThrows(IOException.class, () -> BundleDelta.apply(newBundle, delta, rebuilt));
+        Assertions.assertFalse(rebuilt.exists(), "Nothing should be written when the old bundle doesn't match");
+    }
+
+    @Test
+    public void testNotReproducible() throws IOException {
+        // Same entries, but not laid out the way Generator writes them, so it could never be rebuilt
+        File foreign = new File(dir, "foreign.jar");
+        TestJars.write(foreign, readBundle(newBundle));
+        File bundle = new File(dir, "foreign.bundle");
+        Generator gen = new Generator(bundle).codec(Codec.NONE);
+        Files.write(bundle.toPath(), gen.encode(Files.readAllBytes(foreign.toPath())));
+        Assertions.assertThrows(IOException.class, () -> BundleDelta.create(oldBundle, bundle, new File(dir, "delta.lzma")));
+    }
+
+    @Test
+    public void testRejectsOtherOptions() throws Exception {
+        String[] base = { "--delta", newBundle.getPath(), "--old", oldBundle.getPath(), "--output", new File(dir, "delta.lzma").getPath() };
+        for (String[] extra : new String[][] { { "--verify" }, { "--resources" }, { "--cache" }, { "--streaming" }, { "--level", "1" } }) {
+            String[] args = new String[base.length + extra.length];
+            System.arraycopy(base, 0, args, 0, base.length);
+            System.arraycopy(extra, 0, args, base.length, extra.length);
+            Assertions.assertThrows(IllegalStateException.class, () -> ConsoleTool.main(args), "Accepted " + extra[0]);
+        }
+
+        ConsoleTool.main(base);
+        Assertions.assertTrue(new File(dir, "delta.lzma").isFile(), "Delta was not written without the extra options");
+    }
+
+    @Test
+    public void testOutputIsInput() throws Exception {
+        // Outputs are deleted before running, so an input that is also the output must be rejected before anything is touched
+        byte[] expected = Files.readAllBytes(newBundle.toPath());
+        String[][] commands = {
+            { "--delta", newBundle.getPath(), "--old", oldBundle.getPath(), "--output", newBundle.getPath() },
+            { "--rebuild", newBundle.getPath(), "--old", oldBundle.getPath(), "--output", newBundle.getPath() },
+            { "--merge", newBundle.getPath(), "--output", newBundle.getPath() },
+            { "--delta", newBundle.getPath(), "--old", oldBundle.getPath(), "--output", new File(dir, "delta.lzma").getPath(), "--output", newBundle.getPath() }
+        };
+        for (String[] args : commands) {
+            Assertions.assertThrows(IllegalStateException.class, () -> ConsoleTool.main(args), "Accepted " + String.join(" ", args));
+            Assertions.assertArrayEquals(expected, Files.readAllBytes(newBundle.toPath()), "Input was modified by " + String.join(" ", args));
+        }
+
+        // Nothing is deleted when a later check fails either
+        File existing = new File(dir, "existing.lzma");
+        Files.write(existing.toPath(), expected);
+        Assertions.assertThrows(IllegalStateException.class, () -> ConsoleTool.main(new String[] { "--delta", newBundle.getPath(), "--output", existing.getPath() }));
+        Assertions.assertTrue(existing.isFile(), "Output was deleted by a command that was rejected");
+    }
+
+    private static Map<String, byte[]> readBundle(File bundle) throws IOException {
+        File jar = new File(bundle.getPath() + ".jar");
+        try (InputStream in = Codec.openInput(new FileInputStream(bundle))) {
+            Files.write(jar.toPath(), TestJars.read(in));
+        }
+        return TestJars.read(jar);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.ClassIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Validates name lookups and sibling grouping of the sorted class table
+ */
+public class ClassIndexTest {
+    private static final ClassIndex INDEX = ClassIndex.of(Arrays.asList("a/b", "a/b$1", "a/b$Inner", "a$b", "c", "a/b", "c$1$2"));
+
+    @Test
+    public void testLookup() {
+        Assertions.assertEquals(6, INDEX.size(), "Duplicates should be removed");
+        for (int x = 0; x < INDEX.size(); x++)
+            Assertions.assertEquals(x, INDEX.indexOf(INDEX.getName(x)));
+        for (int x = 1; x < INDEX.size(); x++)
+            Assertions.assertTrue(INDEX.getName(x - 1).compareTo(INDEX.getName(x)) < 0, "Names should be sorted");
+
+        Assertions.assertTrue(INDEX.indexOf("a") < 0);
+        Assertions.assertTrue(INDEX.indexOf("a/b$") < 0);
+        Assertions.assertTrue(INDEX.indexOf("d") < 0);
+    }
+
+    @Test
+    public void testPrefixLookup() {
+        // Entry names are looked up without the .class suffix, and without building a substring
+        Assertions.assertEquals(INDEX.indexOf("a/b$Inner"), INDEX.indexOf("a/b$Inner.class", "a/b$Inner".length()));
+        Assertions.assertEquals(INDEX.indexOf("c"), INDEX.indexOf("c.class", 1));
+        Assertions.assertTrue(INDEX.indexOf("a/b$Other.class", "a/b$Other".length()) < 0);
+    }
+
+    @Test
+    public void testGroups() {
+        int group = INDEX.getGroup("a/b");
+        Assertions.assertTrue(group >= 0);
+        Assertions.assertEquals("a/b", INDEX.getOuter(group));
+        int[] members = INDEX.getMembers(group);
+        Assertions.assertEquals(3, members.length);
+        Assertions.assertEquals("a/b", INDEX.getName(members[0]));
+        Assertions.assertEquals("a/b$1", INDEX.getName(members[1]));
+        Assertions.assertEquals("a/b$Inner", INDEX.getName(members[2]));
+
+        // 'a$b' sorts before 'a/b', but belongs to the outer class 'a' which has no entry of its own
+        group = INDEX.getGroup("a");
+        Assertions.assertTrue(group >= 0);
+        members = INDEX.getMembers(group);
+        Assertions.assertEquals(1, members.length);
+        Assertions.assertEquals("a$b", INDEX.getName(members[0]));
+
+        Assertions.assertEquals(2, INDEX.getMembers(INDEX.getGroup("c")).length);
+        Assertions.assertTrue(INDEX.getGroup("d") < 0);
+        Assertions.assertEquals(3, INDEX.getGroupCount());
+    }
+
+    @Test
+    public void testEmpty() {
+        ClassIndex empty = ClassIndex.of(Collections.emptyList());
+        Assertions.assertEquals(0, empty.size());
+        Assertions.assertEquals(0, empty.getGroupCount());
+        Assertions.assertTrue(empty.indexOf("a") < 0);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Codec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Validates that every codec spec decodes back to the data it encoded, and is detected from the bundle header
+ */
+public class CodecTest {
+    private static final String[] SPECS = { "lzma", "lzma:0", "lzma:5", "lzma:9:20", "deflate", "deflate:0", "deflate:1", "none" };
+
+    private static byte[] encode(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream stream = Codec.openOutput(codec, out)) {
+            stream.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] decode(byte[] data, Codec[] found) throws IOException {
+        try (InputStream in = Codec.openInput(new ByteArrayInputStream(data), found)) {
+            return TestJars.read(in);
+        }
+    }
+
+    private static byte[] sample() {
+        Random rand = new Random(42);
+        byte[] ret = new byte[0];
+        for (int x = 0; x < 20; x++) {
+            byte[] data = TestJars.data(rand);
+            byte[] tmp = new byte[ret.length + data.length];
+            System.arraycopy(ret, 0, tmp, 0, ret.length);
+            System.arraycopy(data, 0, tmp, ret.length, data.length);
+            ret = tmp;
+        }
+        return ret;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = sample();
+        for (String spec : SPECS) {
+            Codec codec = Codec.byName(spec);
+            Codec[] found = new Codec[1];
+            Assertions.assertArrayEquals(data, decode(encode(codec, data), found), "Round trip failed for " + spec);
+            Assertions.assertEquals(codec.getName(), found[0].getName(), "Wrong codec detected for " + spec);
+            Assertions.assertArrayEquals(new byte[0], decode(encode(codec, new byte[0]), null), "Empty round trip failed for " + spec);
+        }
+    }
+
+    @Test
+    public void testNames() {
+        Assertions.assertSame(Codec.LZMA, Codec.byName("lzma"));
+        Assertions.assertSame(Codec.NONE, Codec.byName("none"));
+        Assertions.assertEquals("lzma:5:24", Codec.byName("lzma:5").getName(), "Presets should fill in their dictionary size");
+        Assertions.assertEquals("deflate:9", Codec.byName("deflate").getName());
+        // The name is written to the header, so it must resolve back to the same settings
+        for (String spec : SPECS) {
+            String name = Codec.byName(spec).getName();
+            Assertions.assertEquals(name, Codec.byName(name).getName());
+        }
+    }
+
+    @Test
+    public void testInvalidNames() {
+        for (String spec : new String[] { "lzma:10", "lzma:5:40", "lzma:x", "deflate:10", "deflate:x", "zstd", "none:1" })
+            Assertions.assertThrows(IllegalArgumentException.class, () -> Codec.byName(spec), "Accepted " + spec);
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        byte[] data = sample();
+        // The original format has no header, so existing patchers can still read default bundles
+        Assertions.assertNotEquals(Codec.HEADER_MAGIC >>> 24, encode(Codec.LZMA, data)[0] & 0xFF);
+        Assertions.assertEquals(Codec.HEADER_MAGIC >>> 24, encode(Codec.NONE, data)[0] & 0xFF);
+
+        byte[] encoded = encode(Codec.NONE, data);
+        encoded[4] = (byte)(Codec.HEADER_VERSION + 1);
+        Assertions.assertThrows(IOException.class, () -> decode(encoded, null), "Accepted an unknown header version");
+    }
+}
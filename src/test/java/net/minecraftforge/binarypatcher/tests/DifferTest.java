@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Differ;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import com.nothome.delta.GDiffPatcher;
+
+/**
+ * Validates that every diff engine produces GDiff that the stock patcher can apply
+ */
+public class DifferTest {
+    private static void roundTrip(Differ differ, byte[] clean, byte[] dirty) throws Exception {
+        byte[] diff = differ.compute(clean, dirty);
+        byte[] patched = new GDiffPatcher().patch(clean, diff);
+        Assertions.assertArrayEquals(dirty, patched, differ.getName() + " produced a bad patch");
+    }
+
+    private static void roundTrip(byte[] clean, byte[] dirty) throws Exception {
+        roundTrip(Differ.XDELTA, clean, dirty);
+        roundTrip(new SuffixArrayDiffer(), clean, dirty);
+    }
+
+    @Test
+    public void testLookup() {
+        Assertions.assertEquals("xdelta", Differ.byName("xdelta").getName());
+        Assertions.assertEquals("suffix", Differ.byName("suffix").getName());
+    }
+
+    @Test
+    public void testEdits() throws Exception {
+        Random rand = new Random(42);
+        byte[] clean = new byte[8192];
+        rand.nextBytes(clean);
+
+        // Shuffle some blocks around and change a few bytes, similar to what recompiling a class does
+        byte[] dirty = new byte[clean.length + 100];
+        System.arraycopy(clean, 4096, dirty, 0, 4096);
+        for (int x = 4096; x < 4196; x++)
+            dirty[x] = (byte)rand.nextInt();
+        System.arraycopy(clean, 0, dirty, 4196, 4096);
+        dirty[5000] ^= 0x55;
+
+        roundTrip(clean, dirty);
+    }
+
+    @Test
+    public void testEmptyClean() throws Exception {
+        byte[] dirty = new byte[300];
+        new Random(7).nextBytes(dirty);
+        roundTrip(new SuffixArrayDiffer(), new byte[0], dirty);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.DirectoryEntryWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validates that directory outputs only touch what they have to, and never write or delete outside of the directory
+ */
+public class DirectoryWriterTest {
+    private static final long OLD_TIME = 1000000000000L;
+
+    private File dir;
+    private File output;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = TestJars.tempDir("directory");
+        output = new File(dir, "output");
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private void write(Map<String, byte[]> entries, boolean clean) throws IOException {
+        try (DirectoryEntryWriter writer = new DirectoryEntryWriter(output, 4).clean(clean)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet())
+                writer.write(e.getKey(), e.getValue());
+            writer.finish();
+        }
+    }
+
+    private Map<String, byte[]> entries(String version) {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        ret.put("a/A.class", TestJars.bytes("A"));
+        ret.put("a/b/B.class", TestJars.bytes("B " + version));
+        ret.put("META-INF/MANIFEST.MF", TestJars.bytes("Manifest-Version: 1.0\n"));
+        return ret;
+    }
+
+    private File file(String name) {
+        return new File(output, name);
+    }
+
+    @Test
+    public void testSkipUnchanged() throws IOException {
+        write(entries("1"), false);
+        for (String name : entries("1").keySet())
+            Assertions.assertTrue(file(name).setLastModified(OLD_TIME));
+
+        write(entries("2"), false);
+        Assertions.assertEquals(OLD_TIME, file("a/A.class").lastModified(), "Unchanged file was rewritten");
+        Assertions.assertEquals(OLD_TIME, file("META-INF/MANIFEST.MF").lastModified(), "Unchanged file was rewritten");
+        Assertions.assertArrayEquals(TestJars.bytes("B 2"), Files.readAllBytes(file("a/b/B.class").toPath()));
+
+        // Files are written to a temp file and moved into place, none of those may be left behind
+        try (Stream<Path> files = Files.walk(output.toPath())) {
+            Assertions.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "a/A.class", "a/b/B.class"),
+                files.filter(Files::isRegularFile).map(p -> output.toPath().relativize(p).toString().replace('\\', '/')).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testKeepsOtherFiles() throws IOException {
+        write(entries("1"), false);
+        Map<String, byte[]> fewer = entries("1");
+        fewer.remove("a/b/B.class");
+        write(fewer, false);
+        Assertions.assertTrue(file("a/b/B.class").isFile(), "Files must not be deleted without clean");
+    }
+
+    @Test
+    public void testClean() throws IOException {
+        write(entries("1"), false);
+        Files.write(file("a/user.txt").toPath(), TestJars.bytes("not ours"));
+
+        Map<String, byte[]> fewer = entries("1");
+        fewer.remove("a/b/B.class");
+        write(fewer, true);
+        Assertions.assertFalse(file("a/b/B.class").exists(), "File from the previous run was not deleted");
+        Assertions.assertTrue(file("a/A.class").isFile());
+        Assertions.assertTrue(file("a/user.txt").isFile(), "Only files listed by the previous run may be deleted");
+
+        // The manifest now only lists what this run wrote, so the next run has nothing more to delete
+        write(fewer, true);
+        Assertions.assertTrue(file("a/A.class").isFile());
+    }
+
+    @Test
+    public void testCleanWithoutManifest() throws IOException {
+        Assertions.assertTrue(file("a").mkdirs());
+        Files.write(file("a/user.txt").toPath(), TestJars.bytes("not ours"));
+        write(entries("1"), true);
+        Assertions.assertTrue(file("a/user.txt").isFile(), "Nothing may be deleted without a previous manifest");
+    }
+
+    @Test
+    public void testEditedManifest() throws IOException {
+        write(entries("1"), false);
+        File outside = new File(dir, "outside.txt");
+        Files.write(outside.toPath(), TestJars.bytes("outside"));
+        File manifest = new File(output.getPath() + DirectoryEntryWriter.MANIFEST_EXTENSION);
+        Assertions.assertTrue(manifest.isFile(), "Manifest was not written");
+        Files.write(manifest.toPath(), TestJars.bytes("../outside.txt\n"));
+
+        Assertions.assertThrows(IOException.class, () -> write(entries("1"), true));
+        Assertions.assertTrue(outside.isFile(), "A manifest entry deleted a file outside of the output");
+    }
+
+    @Test
+    public void testPathTraversal() throws IOException {
+        for (String name : new String[] { "../escape.class", "a/../../escape.class", "/escape.class", "a\\..\\..\\escape.class", "." }) {
+            Map<String, byte[]> entries = new LinkedHashMap<>();
+            entries.put(name, TestJars.bytes("escape"));
+            Assertions.assertThrows(IOException.class, () -> write(entries, false), "Accepted " + name);
+        }
+        Assertions.assertFalse(new File(dir, "escape.class").exists());
+        Assertions.assertFalse(new File("/escape.class").exists());
+
+        // Names that only look suspicious are fine, as long as they stay inside
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/../b/C.class", TestJars.bytes("C"));
+        entries.put("..a/D.class", TestJars.bytes("D"));
+        write(entries, false);
+        Assertions.assertTrue(file("b/C.class").isFile());
+        Assertions.assertTrue(file("..a/D.class").isFile());
+    }
+
+    @Test
+    public void testDuplicate() {
+        Assertions.assertThrows(IOException.class, () -> {
+            try (DirectoryEntryWriter writer = new DirectoryEntryWriter(output, 1)) {
+                writer.write("a/A.class", TestJars.bytes("A"));
+                writer.write("a/./A.class", TestJars.bytes("A"));
+            }
+        });
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Codec;
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.JarIndex;
+import net.minecraftforge.binarypatcher.Patch;
+import net.minecraftforge.binarypatcher.Patcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Validates direct reads through the clean jar index, and that they reject data that doesn't match the jar's CRCs
+ */
+public class JarIndexTest {
+    private File dir;
+    private File jar;
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("binarypatcher-index").toFile();
+        jar = new File(dir, "clean.jar");
+
+        entries.put("a/A.class", repeat("class A ", 100));
+        entries.put("a/B.class", repeat("BBBBBBBB", 64)); // Stored, so it can be corrupted in place
+        entries.put("assets/lang.json", repeat("{\"key\":\"value\"}", 10));
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("a/"));
+            out.closeEntry();
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                if (e.getKey().equals("a/B.class")) {
+                    CRC32 crc = new CRC32();
+                    crc.update(e.getValue());
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(e.getValue().length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    @AfterEach
+    public void cleanup() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private static byte[] repeat(String value, int count) {
+        StringBuilder buf = new StringBuilder();
+        for (int x = 0; x < count; x++)
+            buf.append(value);
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Flips a byte of the stored entry, keeping the size and modified time so the index is still trusted
+    private void corrupt() throws IOException {
+        byte[] data = Files.readAllBytes(jar.toPath());
+        byte[] needle = entries.get("a/B.class");
+        int pos = 0;
+        while (pos <= data.length - needle.length && !Arrays.equals(needle, Arrays.copyOfRange(data, pos, pos + needle.length)))
+            pos++;
+        Assertions.assertTrue(pos <= data.length - needle.length, "Could not find stored data");
+
+        long modified = jar.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(jar, "rw")) {
+            raf.seek(pos + 10);
+            raf.write('C');
+        }
+        jar.setLastModified(modified);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        JarIndex index = JarIndex.load(jar);
+        Assertions.assertNotNull(index);
+        Assertions.assertTrue(new File(jar.getPath() + JarIndex.EXTENSION).isFile(), "Index was not written");
+        Assertions.assertEquals(entries.size(), index.getEntries().size(), "Directories should not be indexed");
+
+        // Once from the freshly built index, and once from the saved one
+        for (JarIndex loaded : new JarIndex[] { index, JarIndex.load(jar) }) {
+            try (RandomAccessFile raf = loaded.open()) {
+                for (Map.Entry<String, byte[]> e : entries.entrySet())
+                    Assertions.assertArrayEquals(e.getValue(), loaded.read(raf, loaded.getEntry(e.getKey())), "Wrong data for " + e.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        JarIndex.load(jar);
+        corrupt();
+
+        JarIndex index = JarIndex.load(jar);
+        try (RandomAccessFile raf = index.open()) {
+            Assertions.assertArrayEquals(entries.get("a/A.class"), index.read(raf, index.getEntry("a/A.class")));
+            Assertions.assertNull(index.read(raf, index.getEntry("a/B.class")), "Corrupt data was not detected");
+        }
+    }
+
+    @Test
+    public void testPatcherFallback() throws IOException {
+        Map<String, byte[]> patches = new LinkedHashMap<>();
+        patches.put("a.A.binpatch", Patch.raw("a/A", "a/A", entries.get("a/A.class"), repeat("patched A", 1)).toBytes());
+        patches.put("a.B.binpatch", Patch.raw("a/B", "a/B", entries.get("a/B.class"), repeat("patched B", 1)).toBytes());
+        File bundle = new File(dir, "patches.lzma");
+        Generator gen = new Generator(bundle).codec(Codec.NONE);
+        Files.write(bundle.toPath(), gen.encode(gen.createJar(patches)));
+
+        JarIndex.load(jar);
+        corrupt();
+
+        // The index read fails the CRC, and the scan that takes over reports the corrupt entry instead of patching it
+        Patcher patcher = new Patcher(jar, new File(dir, "output.jar")).index(true).includeUnpatched(false);
+        patcher.loadPatches(bundle, null);
+        Assertions.assertThrows(IOException.class, patcher::process);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Util;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates the helpers that have per runtime implementations. The test task covers the Java 8 baseline,
+ * the testJava11 and testJava21 tasks run this against the multi-release jar so the versioned copies are the ones tested.
+ */
+public class JdkTest {
+    private static final int[] SIZES = { 0, 1, 8191, 8192, 8193, 3 * 8192 + 5 };
+    private static final String JDK = "net.minecraftforge.binarypatcher.Jdk";
+
+    // Jdk is package private, only the stream helpers are reachable through public API
+    private static Class<?> jdk() throws ReflectiveOperationException {
+        return Class.forName(JDK);
+    }
+
+    @Test
+    public void testRelease() throws ReflectiveOperationException {
+        Field field = jdk().getDeclaredField("RELEASE");
+        field.setAccessible(true);
+        Assertions.assertEquals(Integer.getInteger("binarypatcher.jdkRelease", 8), field.get(null), "Wrong version of Jdk was loaded");
+    }
+
+    @Test
+    public void testIoExecutor() throws Exception {
+        Method method = jdk().getDeclaredMethod("newIoExecutor", int.class, String.class);
+        method.setAccessible(true);
+        ExecutorService executor = (ExecutorService)method.invoke(null, 2, "JdkTest");
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try {
+            List<Future<Thread>> futures = new ArrayList<>();
+            for (int x = 0; x < 16; x++) {
+                futures.add(executor.submit(() -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    return Thread.currentThread();
+                }));
+            }
+            for (Future<Thread> future : futures) {
+                Thread thread = future.get(10, TimeUnit.SECONDS);
+                Assertions.assertTrue(thread.getName().startsWith("JdkTest"), "Thread name was not applied: " + thread.getName());
+                if (Integer.getInteger("binarypatcher.jdkRelease", 8) >= 21)
+                    Assertions.assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread), "Java 21 I/O tasks should run on virtual threads");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // Callers size the thread count for what the disk can take, so it must hold on every version
+        Assertions.assertTrue(peak.get() <= 2, "Ran " + peak.get() + " tasks at once with 2 threads");
+    }
+
+    private static byte[] data(int size) {
+        byte[] ret = new byte[size];
+        new Random(size).nextBytes(ret);
+        return ret;
+    }
+
+    @Test
+    public void testReadAllBytes() throws IOException {
+        for (int size : SIZES) {
+            Assertions.assertArrayEquals(data(size), Util.toByteArray(new ByteArrayInputStream(data(size))), "Full reads of " + size + " bytes");
+            Assertions.assertArrayEquals(data(size), Util.toByteArray(new Trickle(data(size))), "Short reads of " + size + " bytes");
+        }
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        for (int size : SIZES) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(7); // Existing output is appended to, not replaced
+            Util.copy(new Trickle(data(size)), out);
+            byte[] copied = out.toByteArray();
+            Assertions.assertEquals(size + 1, copied.length, "Wrong length for " + size + " bytes");
+            Assertions.assertEquals(7, copied[0]);
+            byte[] expected = data(size);
+            for (int x = 0; x < size; x++)
+                Assertions.assertEquals(expected[x], copied[x + 1], "Wrong byte " + x + " of " + size);
+        }
+    }
+
+    /*
+     * Returns at most a few bytes per read, like a slow network or decompressing stream.
+     */
+    private static class Trickle extends InputStream {
+        private final byte[] data;
+        private int pos = 0;
+
+        private Trickle(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (pos >= data.length)
+                return -1;
+            int count = Math.min(Math.min(len, 1 + pos % 3), data.length - pos);
+            System.arraycopy(data, pos, buf, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
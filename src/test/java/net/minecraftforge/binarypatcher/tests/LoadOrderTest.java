@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.LoadOrder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+/**
+ * Validates parsing of every supported class load order format
+ */
+public class LoadOrderTest {
+    private static void assertOrder(LoadOrder order, String... classes) {
+        Assertions.assertEquals(classes.length, order.size(), "Wrong number of classes");
+        for (int x = 0; x < classes.length; x++)
+            Assertions.assertEquals(x, order.getRank(classes[x]), "Wrong rank for " + classes[x]);
+    }
+
+    @Test
+    public void testPlainList() {
+        LoadOrder order = LoadOrder.of(Arrays.asList(
+            "# Comment",
+            "a.b.C",
+            "",
+            "a/b/D.class",
+            "  e.F  ",
+            "a.b.C", // Duplicates keep their first rank
+            "not a class name"
+        ));
+        assertOrder(order, "a/b/C", "a/b/D", "e/F");
+    }
+
+    @Test
+    public void testJava8Verbose() {
+        LoadOrder order = LoadOrder.of(Arrays.asList(
+            "[Opened /usr/lib/jvm/java-8/jre/lib/rt.jar]",
+            "[Loaded java.lang.Object from /usr/lib/jvm/java-8/jre/lib/rt.jar]",
+            "[Loaded a.b.C$Inner from file:/game/client.jar]",
+            "[Loaded a.b.C from file:/game/client.jar]"
+        ));
+        assertOrder(order, "java/lang/Object", "a/b/C$Inner", "a/b/C");
+    }
+
+    @Test
+    public void testUnifiedLogging() {
+        LoadOrder order = LoadOrder.of(Arrays.asList(
+            "[0.005s][info][class,load] opened: /usr/lib/jvm/java-17/lib/modules",
+            "[0.010s][info][class,load] java.lang.Object source: shared objects file",
+            "[0.250s][info][class,load] a.b.C source: file:/game/client.jar",
+            "[0.251s][info][class,init] a.b.C Verification",
+            "[0.252s][info][class,load] d.E"
+        ));
+        Assertions.assertEquals(LoadOrder.UNKNOWN, order.getRank("opened:"));
+        assertOrder(order, "java/lang/Object", "a/b/C", "d/E");
+    }
+
+    @Test
+    public void testEntryRanks() {
+        LoadOrder order = LoadOrder.of(Arrays.asList("b.B", "a.A"));
+        Assertions.assertEquals(-1, order.getEntryRank("META-INF/MANIFEST.MF"));
+        Assertions.assertEquals(-1, order.getEntryRank("META-INF/"));
+        Assertions.assertEquals(0, order.getEntryRank("b/B.class"));
+        Assertions.assertEquals(1, order.getEntryRank("a/A.class"));
+        Assertions.assertEquals(LoadOrder.UNKNOWN, order.getEntryRank("c/C.class"));
+        Assertions.assertEquals(LoadOrder.UNKNOWN, order.getEntryRank("assets/icon.png"));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.PatchBundle;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that bundles generated with mappings name every patch by its srg name, inner classes included
+ */
+public class MappingTest {
+    private File dir;
+    private File clean;
+    private File dirty;
+    private File mappings;
+    private File reversed;
+    // Only the outer classes are listed, the same as real mappings, and only some of them so unmapped classes are covered too
+    private final Map<String, String> o2m = new LinkedHashMap<>();
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("mapping");
+        Random rand = new Random(42);
+        Map<String, byte[]> classes = TestJars.classes(rand, 40);
+        clean = TestJars.write(new File(dir, "clean.jar"), classes);
+        dirty = TestJars.write(new File(dir, "dirty.jar"), TestJars.modify(rand, classes));
+
+        List<String> outers = outers(classes);
+        for (int x = 0; x < outers.size(); x += 2)
+            o2m.put(outers.get(x), "mapped/" + outers.get(x).replace("Class", "Renamed"));
+        List<String> lines = new ArrayList<>();
+        List<String> reverse = new ArrayList<>();
+        o2m.forEach((obf, srg) -> {
+            lines.add("CL: " + obf + ' ' + srg);
+            reverse.add("CL: " + srg + ' ' + obf);
+        });
+        mappings = new File(dir, "mappings.srg");
+        reversed = new File(dir, "reversed.srg");
+        Files.write(mappings.toPath(), lines);
+        Files.write(reversed.toPath(), reverse);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private static List<String> outers(Map<String, byte[]> classes) {
+        List<String> ret = new ArrayList<>();
+        for (String name : classes.keySet()) {
+            if (name.indexOf('$') == -1)
+                ret.add(name.substring(0, name.length() - ".class".length()));
+        }
+        return ret;
+    }
+
+    private String toSrg(String obf) {
+        int idx = obf.indexOf('$');
+        String outer = idx == -1 ? obf : obf.substring(0, idx);
+        return o2m.getOrDefault(outer, outer) + (idx == -1 ? "" : obf.substring(idx));
+    }
+
+    private File create(String name, File mappings, boolean reverse, boolean patches) throws IOException {
+        File ret = new File(dir, name);
+        Generator gen = new Generator(ret).differ(new SuffixArrayDiffer()).addSet(clean, dirty, null);
+        gen.loadMappings(mappings, reverse);
+        if (patches) {
+            // Patch files are named by the srg name, so every outer class needs mapping back, and its inner classes remapping forward
+            File root = new File(dir, "patches-" + name);
+            for (String obf : outers(TestJars.read(dirty))) {
+                File patch = new File(root, toSrg(obf) + ".java.patch");
+                Assertions.assertTrue(patch.getParentFile().isDirectory() || patch.getParentFile().mkdirs());
+                Files.write(patch.toPath(), TestJars.bytes(""));
+            }
+            gen.loadPatches(root);
+        }
+        gen.create();
+        return ret;
+    }
+
+    private void assertNames(File bundle, boolean inner) throws IOException {
+        Generator gen = new Generator(null);
+        List<PatchBundle.Entry> entries = PatchBundle.load(bundle, false, false).getEntries();
+        Assertions.assertFalse(entries.isEmpty(), "No patches were generated");
+        boolean mapped = false;
+        boolean innerMapped = false;
+        for (PatchBundle.Entry entry : entries) {
+            String srg = toSrg(entry.patch.obf);
+            Assertions.assertEquals(srg, entry.patch.srg, "Wrong srg name for " + entry.patch.obf);
+            Assertions.assertEquals(gen.toJarName(srg), entry.name, "Wrong entry name for " + entry.patch.obf);
+            mapped |= !srg.equals(entry.patch.obf);
+            innerMapped |= !srg.equals(entry.patch.obf) && srg.indexOf('$') != -1;
+        }
+        Assertions.assertTrue(mapped, "No patched class was mapped");
+        if (inner)
+            Assertions.assertTrue(innerMapped, "No patched inner class was mapped");
+    }
+
+    @Test
+    public void testFullSet() throws IOException {
+        File bundle = create("full.lzma", mappings, false, false);
+        assertNames(bundle, false);
+        File reverse = create("reversed.lzma", reversed, true, false);
+        Assertions.assertArrayEquals(Files.readAllBytes(bundle.toPath()), Files.readAllBytes(reverse.toPath()), "Reversed mappings changed the bundle");
+    }
+
+    @Test
+    public void testPatchFiles() throws IOException {
+        File bundle = create("patches.lzma", mappings, false, true);
+        assertNames(bundle, true);
+        File reverse = create("reversed.lzma", reversed, true, true);
+        Assertions.assertArrayEquals(Files.readAllBytes(bundle.toPath()), Files.readAllBytes(reverse.toPath()), "Reversed mappings changed the bundle");
+    }
+}
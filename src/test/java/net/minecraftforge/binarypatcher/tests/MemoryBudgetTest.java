@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.PatchBundle;
+import net.minecraftforge.binarypatcher.Patcher;
+import net.minecraftforge.binarypatcher.PayloadStore;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that spilling patches to disk never changes what is generated or applied
+ */
+public class MemoryBudgetTest {
+    private static final long BUDGET = 1024;
+
+    private File dir;
+    private File clean;
+    private File dirty;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("budget");
+        Random rand = new Random(42);
+        Map<String, byte[]> classes = TestJars.classes(rand, 60);
+        clean = TestJars.write(new File(dir, "clean.jar"), classes);
+        dirty = TestJars.write(new File(dir, "dirty.jar"), TestJars.modify(rand, classes));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private File create(String name, long budget) throws IOException {
+        File ret = new File(dir, name);
+        new Generator(ret).differ(new SuffixArrayDiffer()).addSet(clean, dirty, null).memoryBudget(budget).create();
+        return ret;
+    }
+
+    private File apply(File bundle, String name, long budget) throws IOException {
+        return apply(bundle, name, budget, false);
+    }
+
+    private File apply(File bundle, String name, long budget, boolean cache) throws IOException {
+        File ret = new File(dir, name);
+        Patcher patcher = new Patcher(clean, ret).includeUnpatched(true).memoryBudget(budget).cache(cache);
+        patcher.loadPatches(bundle, null);
+        patcher.process();
+        return ret;
+    }
+
+    @Test
+    public void testGenerator() throws IOException {
+        byte[] expected = Files.readAllBytes(create("unlimited.lzma", PayloadStore.UNLIMITED).toPath());
+        Assertions.assertArrayEquals(expected, Files.readAllBytes(create("budget.lzma", BUDGET).toPath()), "Spilled bundle differs");
+        Assertions.assertArrayEquals(expected, Files.readAllBytes(create("zero.lzma", 0).toPath()), "Fully spilled bundle differs");
+    }
+
+    @Test
+    public void testPatcher() throws IOException {
+        File bundle = create("patches.lzma", PayloadStore.UNLIMITED);
+        Map<String, byte[]> expected = TestJars.read(apply(bundle, "unlimited.jar", PayloadStore.UNLIMITED));
+        for (long budget : new long[] { BUDGET, 0 }) {
+            Map<String, byte[]> actual = TestJars.read(apply(bundle, "budget-" + budget + ".jar", budget));
+            Assertions.assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<String, byte[]> e : expected.entrySet())
+                Assertions.assertArrayEquals(e.getValue(), actual.get(e.getKey()), "Wrong data for " + e.getKey() + " with a budget of " + budget);
+        }
+    }
+
+    @Test
+    public void testPatcherCached() throws IOException {
+        File bundle = create("patches.lzma", PayloadStore.UNLIMITED);
+        File cache = new File(bundle.getPath() + PatchBundle.CACHE_EXTENSION);
+        Map<String, byte[]> expected = TestJars.read(apply(bundle, "unlimited.jar", PayloadStore.UNLIMITED));
+        // The first run writes the cache while it stores each patch, the second reads each patch back out of it
+        for (String run : new String[] { "missing", "present" }) {
+            Map<String, byte[]> actual = TestJars.read(apply(bundle, "cached-" + run + ".jar", 0, true));
+            Assertions.assertTrue(cache.isFile(), "Cache was not written");
+            Assertions.assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<String, byte[]> e : expected.entrySet())
+                Assertions.assertArrayEquals(e.getValue(), actual.get(e.getKey()), "Wrong data for " + e.getKey() + " with the cache " + run);
+        }
+        Assertions.assertEquals(Arrays.asList("patches.lzma.cache"),
+            Arrays.asList(dir.list((d, name) -> name.startsWith("patches.lzma."))), "Cache temp files were left behind");
+    }
+
+    @Test
+    public void testReleasedAfterProcess() throws IOException {
+        File bundle = create("patches.lzma", PayloadStore.UNLIMITED);
+        Patcher patcher = new Patcher(clean, new File(dir, "output.jar")).memoryBudget(0);
+        patcher.loadPatches(bundle, null);
+        Assertions.assertFalse(patcher.getPatches().isEmpty(), "No patches were loaded");
+        patcher.process();
+        // The spill file is gone, so no patch may still point into it
+        Assertions.assertTrue(patcher.getPatches().isEmpty(), "Patches were kept after their store was closed");
+    }
+
+    @Test
+    public void testStore() throws IOException {
+        Random rand = new Random(42);
+        byte[] small = TestJars.data(rand);
+        byte[] large = TestJars.data(rand);
+        PayloadStore.Payload kept;
+        PayloadStore.Payload spilled;
+        try (PayloadStore store = new PayloadStore(small.length)) {
+            kept = store.put(small);
+            spilled = store.put(large);
+            Assertions.assertEquals(large.length, store.getSpilled());
+            Assertions.assertArrayEquals(small, kept.get());
+            Assertions.assertArrayEquals(large, spilled.get());
+        }
+        Assertions.assertArrayEquals(small, kept.get(), "Payloads on the heap stay readable");
+        Assertions.assertThrows(IOException.class, spilled::get, "Spilled payloads can't be read once the store is closed");
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Codec;
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.Patch;
+import net.minecraftforge.binarypatcher.PatchBundle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates decoding of patch bundles, with and without the decode cache
+ */
+public class PatchBundleTest {
+    private File dir;
+    private File bundle;
+    private File cache;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("binarypatcher-bundle").toFile();
+        bundle = new File(dir, "patches.lzma");
+        cache = new File(bundle.getPath() + PatchBundle.CACHE_EXTENSION);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeBundle(String version) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("client/a.A.binpatch", Patch.raw("a/A", "a/A", bytes("clean"), bytes("client A " + version)).toBytes());
+        entries.put("client/assets/lang.json.respatch", Patch.raw("assets/lang.json", "assets/lang.json", bytes("{}"), bytes("{\"a\":1}")).toBytes());
+        entries.put("server/a.A.binpatch", Patch.raw("a/A", "a/A", bytes("clean"), bytes("server A " + version)).toBytes());
+        entries.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\n"));
+
+        Generator gen = new Generator(bundle).codec(Codec.NONE);
+        Files.write(bundle.toPath(), gen.encode(gen.createJar(entries)));
+    }
+
+    private static List<String> describe(PatchBundle bundle) {
+        List<String> ret = new ArrayList<>();
+        for (PatchBundle.Entry entry : bundle.getEntries())
+            ret.add(entry.name + '=' + new String(entry.patch.data, StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    @Test
+    public void testPrefix() throws IOException {
+        writeBundle("1");
+        List<String> all = describe(PatchBundle.load(bundle, false, false));
+        Assertions.assertEquals(3, all.size(), "Only patch entries should be decoded");
+
+        List<String> client = describe(PatchBundle.load(bundle, false, false, false, "client"));
+        Assertions.assertEquals(all.subList(0, 2), client);
+
+        List<String> read = new ArrayList<>();
+        PatchBundle.read(bundle, false, false, "server", entry -> read.add(entry.name));
+        Assertions.assertEquals(1, read.size());
+        Assertions.assertEquals("server/a.A.binpatch", read.get(0));
+
+        try (PatchBundle.Reader reader = PatchBundle.open(bundle, false, false, "server")) {
+            Assertions.assertEquals("server/a.A.binpatch", reader.next().name);
+            Assertions.assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testCacheRoundTrip() throws IOException {
+        writeBundle("1");
+        List<String> expected = describe(PatchBundle.load(bundle, false, false));
+
+        // A filtered load still caches the whole bundle, so other prefixes can use it
+        List<String> client = describe(PatchBundle.load(bundle, false, false, true, "client"));
+        Assertions.assertTrue(cache.isFile(), "Cache was not written");
+        Assertions.assertEquals(expected.subList(0, 2), client);
+
+        Assertions.assertEquals(expected, describe(PatchBundle.load(bundle, false, false, true)));
+        Assertions.assertEquals(expected.subList(2, 3), describe(PatchBundle.load(bundle, false, false, true, "server")));
+    }
+
+    @Test
+    public void testStaleCache() throws IOException {
+        writeBundle("1");
+        PatchBundle.load(bundle, false, false, true);
+        byte[] first = Files.readAllBytes(cache.toPath());
+
+        // A changed bundle has a different hash, so the old cache must not be used
+        writeBundle("2");
+        List<String> expected = describe(PatchBundle.load(bundle, false, false));
+        Assertions.assertEquals(expected, describe(PatchBundle.load(bundle, false, false, true)));
+        Assertions.assertTrue(expected.get(0).endsWith("client A 2"));
+        Assertions.assertFalse(Arrays.equals(first, Files.readAllBytes(cache.toPath())), "Cache was not rebuilt");
+    }
+
+    @Test
+    public void testCorruptCache() throws IOException {
+        writeBundle("1");
+        List<String> expected = describe(PatchBundle.load(bundle, false, false, true));
+
+        // Truncated data is rejected and decoded again, instead of failing the load
+        byte[] data = Files.readAllBytes(cache.toPath());
+        Files.write(cache.toPath(), Arrays.copyOf(data, data.length - 4));
+        Assertions.assertEquals(expected, describe(PatchBundle.load(bundle, false, false, true)));
+    }
+
+    @Test
+    public void testOldCacheVersion() throws IOException {
+        writeBundle("1");
+        List<String> expected = describe(PatchBundle.load(bundle, false, false, true));
+        byte[] current = Files.readAllBytes(cache.toPath());
+
+        // Version 2 stored int offsets, reading it with the current layout would misplace every entry
+        byte[] old = current.clone();
+        old[4] = 2;
+        Files.write(cache.toPath(), old);
+        Assertions.assertEquals(expected, describe(PatchBundle.load(bundle, false, false, true)));
+        Assertions.assertArrayEquals(current, Files.readAllBytes(cache.toPath()), "Old cache was not replaced");
+    }
+}
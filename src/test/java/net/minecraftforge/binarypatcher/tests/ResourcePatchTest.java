@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.Patch;
+import net.minecraftforge.binarypatcher.PatchBundle;
+import net.minecraftforge.binarypatcher.Patcher;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates patches for non-class entries, and the raw patches that carry the whole dirty data
+ */
+public class ResourcePatchTest {
+    private File dir;
+    private File clean;
+    private File dirty;
+    private Map<String, byte[]> dirtyEntries;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("resource");
+        Random rand = new Random(42);
+
+        Map<String, byte[]> cleanEntries = TestJars.classes(rand, 10);
+        byte[] config = TestJars.data(rand);
+        byte[] texture = TestJars.data(rand);
+        cleanEntries.put("assets/lang/en_us.json", TestJars.bytes("{\"a\":\"b\"}"));
+        cleanEntries.put("assets/config.toml", config);
+        cleanEntries.put("assets/texture.png", texture);
+        cleanEntries.put("assets/removed.txt", TestJars.bytes("removed"));
+        cleanEntries.put("assets/unchanged.txt", TestJars.bytes("unchanged"));
+        cleanEntries.put("META-INF/CERT.SF", TestJars.bytes("signature"));
+        clean = TestJars.write(new File(dir, "clean.jar"), cleanEntries);
+
+        dirtyEntries = new LinkedHashMap<>(cleanEntries);
+        dirtyEntries.put("assets/lang/en_us.json", TestJars.bytes("{\"a\":\"c\"}")); // Below the threshold, so stored whole
+        config = config.clone(); // A small edit, so the diff is worth it
+        config[config.length / 2] ^= 1;
+        dirtyEntries.put("assets/config.toml", config);
+        byte[] replaced = new byte[texture.length];  // Nothing in common, so the diff is larger than the ratio allows
+        rand.nextBytes(replaced);
+        dirtyEntries.put("assets/texture.png", replaced);
+        dirtyEntries.remove("assets/removed.txt");
+        dirtyEntries.put("assets/added.txt", TestJars.bytes("added"));
+        dirtyEntries.put("META-INF/CERT.SF", TestJars.bytes("other signature"));
+        dirty = TestJars.write(new File(dir, "dirty.jar"), dirtyEntries);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private File create() throws IOException {
+        File bundle = new File(dir, "patches.lzma");
+        new Generator(bundle).differ(new SuffixArrayDiffer()).resources(true).addSet(clean, dirty, null).create();
+        return bundle;
+    }
+
+    @Test
+    public void testRawRoundTrip() throws IOException {
+        Patch patch = Patch.raw("a/b.txt", "a/b.txt", TestJars.bytes("clean"), TestJars.bytes("dirty"));
+        Assertions.assertTrue(patch.raw);
+        Patch read = Patch.from(new ByteArrayInputStream(patch.toBytes()));
+        Assertions.assertTrue(read.raw, "Raw flag was lost");
+        Assertions.assertEquals(patch.checksum, read.checksum);
+        Assertions.assertArrayEquals(patch.data, read.data);
+
+        // Normal patches keep writing version 1, so older patchers can still read them
+        Patch normal = Patch.from("a/b", "a/b", TestJars.bytes("clean"), TestJars.bytes("dirty"), new SuffixArrayDiffer());
+        Assertions.assertEquals(1, normal.toBytes()[0]);
+        Assertions.assertFalse(Patch.from(new ByteArrayInputStream(normal.toBytes())).raw);
+
+        Assertions.assertNull(patch.toBytes(true), "Legacy patches can't be raw");
+        // A deletion is never raw, it has no data to carry
+        Assertions.assertFalse(Patch.raw("a/b.txt", "a/b.txt", TestJars.bytes("clean"), new byte[0]).raw);
+    }
+
+    @Test
+    public void testBundleEntries() throws IOException {
+        Map<String, Patch> patches = new HashMap<>();
+        for (PatchBundle.Entry entry : PatchBundle.load(create(), false, false).getEntries()) {
+            if (entry.isResource())
+                patches.put(entry.name, entry.patch);
+        }
+
+        Assertions.assertTrue(patches.get("assets/lang/en_us.json.respatch").raw, "Small resources should be raw");
+        Assertions.assertFalse(patches.get("assets/config.toml.respatch").raw, "Small edits should be diffed");
+        Assertions.assertTrue(patches.get("assets/texture.png.respatch").raw, "Diffs over the ratio should be raw");
+        Assertions.assertEquals(0, patches.get("assets/removed.txt.respatch").data.length);
+        Assertions.assertFalse(patches.get("assets/added.txt.respatch").exists);
+        Assertions.assertFalse(patches.containsKey("assets/unchanged.txt.respatch"));
+        Assertions.assertFalse(patches.containsKey("META-INF/CERT.SF.respatch"), "Signatures must never be patched");
+        Assertions.assertEquals(5, patches.size());
+    }
+
+    @Test
+    public void testApply() throws IOException {
+        File output = new File(dir, "patched.jar");
+        Patcher patcher = new Patcher(clean, output).includeUnpatched(true).keepData(true);
+        patcher.loadPatches(create(), null);
+        patcher.process();
+
+        Map<String, byte[]> expected = new HashMap<>(dirtyEntries);
+        expected.remove("META-INF/CERT.SF"); // Signatures are stripped from the output
+        Map<String, byte[]> actual = TestJars.read(output);
+        Assertions.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> e : expected.entrySet())
+            Assertions.assertArrayEquals(e.getValue(), actual.get(e.getKey()), "Wrong data for " + e.getKey());
+    }
+
+    @Test
+    public void testLegacy() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Generator(new File(dir, "patches.lzma")).resources(true).legacy().addSet(clean, dirty, null).create());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.Patcher;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that merging sharded runs produces exactly the bundle a single run does
+ */
+public class ShardTest {
+    private static final int SHARDS = 4;
+
+    private File dir;
+    private File clean;
+    private File dirty;
+    private File serverClean;
+    private File serverDirty;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("shard");
+        Random rand = new Random(42);
+        Map<String, byte[]> classes = TestJars.classes(rand, 60);
+        clean = TestJars.write(new File(dir, "clean.jar"), classes);
+        dirty = TestJars.write(new File(dir, "dirty.jar"), TestJars.modify(rand, classes));
+        classes = TestJars.classes(rand, 30);
+        serverClean = TestJars.write(new File(dir, "server-clean.jar"), classes);
+        serverDirty = TestJars.write(new File(dir, "server-dirty.jar"), TestJars.modify(rand, classes));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private Generator generator(File output) {
+        return new Generator(output).differ(new SuffixArrayDiffer())
+            .addSet(clean, dirty, "client")
+            .addSet(serverClean, serverDirty, "server");
+    }
+
+    private List<File> shards() throws IOException {
+        List<File> ret = new ArrayList<>();
+        for (int x = 0; x < SHARDS; x++) {
+            File shard = new File(dir, "shard" + x + ".jar");
+            generator(shard).shard(x, SHARDS).create();
+            ret.add(shard);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testMergeMatchesCreate() throws IOException {
+        File single = new File(dir, "single.lzma");
+        generator(single).create();
+
+        File merged = new File(dir, "merged.lzma");
+        List<File> shards = shards();
+        // Merging must not depend on the order the shards are passed in
+        shards.add(0, shards.remove(SHARDS - 1));
+        new Generator(merged).merge(shards);
+
+        Assertions.assertArrayEquals(Files.readAllBytes(single.toPath()), Files.readAllBytes(merged.toPath()), "Merged bundle differs from a single run");
+    }
+
+    @Test
+    public void testShardsKeepClassGroups() throws IOException {
+        // Inner classes are patched together with their outer class, so a whole group must land in one shard
+        Map<String, Integer> owners = new HashMap<>();
+        List<File> shards = shards();
+        int total = 0;
+        for (int x = 0; x < shards.size(); x++) {
+            for (String name : TestJars.read(shards.get(x)).keySet()) {
+                int idx = name.indexOf('$');
+                String outer = idx == -1 ? name.substring(0, name.length() - ".binpatch".length()) : name.substring(0, idx);
+                Integer owner = owners.putIfAbsent(outer, x);
+                Assertions.assertTrue(owner == null || owner == x, outer + " is split between shards " + owner + " and " + x);
+                total++;
+            }
+        }
+        Assertions.assertTrue(total > 0, "No patches were generated");
+        Assertions.assertTrue(owners.values().stream().distinct().count() > 1, "Every patch landed in the same shard");
+    }
+
+    @Test
+    public void testOverlappingShards() throws IOException {
+        List<File> shards = shards();
+        Assertions.assertThrows(IOException.class, () -> new Generator(new File(dir, "merged.lzma")).merge(Arrays.asList(shards.get(0), shards.get(0))));
+    }
+
+    @Test
+    public void testMergedApplies() throws IOException {
+        File merged = new File(dir, "merged.lzma");
+        new Generator(merged).merge(shards());
+
+        File output = new File(dir, "patched.jar");
+        Patcher patcher = new Patcher(clean, output).includeUnpatched(true);
+        patcher.loadPatches(merged, "client");
+        patcher.process();
+
+        // Without a patch list only outer classes are diffed, so those are the ones that must match the dirty jar
+        Map<String, byte[]> expected = TestJars.read(dirty);
+        Map<String, byte[]> actual = TestJars.read(output);
+        expected.keySet().removeIf(name -> name.indexOf('$') != -1);
+        actual.keySet().removeIf(name -> name.indexOf('$') != -1);
+        Assertions.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> e : expected.entrySet())
+            Assertions.assertArrayEquals(e.getValue(), actual.get(e.getKey()), "Wrong data for " + e.getKey());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.Patcher;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that streaming a bundle produces exactly what loading it up front does, and falls back when the bundle isn't in clean jar order
+ */
+public class StreamingTest {
+    private File dir;
+    private File clean;
+    private File dirty;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("streaming");
+        Random rand = new Random(42);
+        Map<String, byte[]> classes = TestJars.classes(rand, 60);
+        clean = TestJars.write(new File(dir, "clean.jar"), classes);
+        dirty = TestJars.write(new File(dir, "dirty.jar"), TestJars.modify(rand, classes));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private File create(String name, boolean cleanOrder) throws IOException {
+        File ret = new File(dir, name);
+        new Generator(ret).differ(new SuffixArrayDiffer()).addSet(clean, dirty, null).cleanOrder(cleanOrder).create();
+        return ret;
+    }
+
+    private File apply(File bundle, String name, boolean streaming, int window, int threads) throws IOException {
+        File ret = new File(dir, name);
+        Patcher patcher = new Patcher(clean, ret).includeUnpatched(true).streaming(streaming).window(window).threads(threads);
+        patcher.loadPatches(bundle, null);
+        patcher.process();
+        return ret;
+    }
+
+    private void assertSameJar(File expected, File actual) throws IOException {
+        Assertions.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()), actual.getName() + " differs from " + expected.getName());
+    }
+
+    @Test
+    public void testMatchesLoaded() throws IOException {
+        File bundle = create("ordered.lzma", true);
+        for (int threads : new int[] { 1, 4 }) {
+            File expected = apply(bundle, "loaded-" + threads + ".jar", false, 64, threads);
+            assertSameJar(expected, apply(bundle, "streamed-" + threads + ".jar", true, 64, threads));
+            // Every patch is next in line, so it doesn't need to read ahead at all
+            assertSameJar(expected, apply(bundle, "window-" + threads + ".jar", true, 1, threads));
+        }
+
+        // New files have no clean entry, so they must still be added once the clean jar ends
+        Map<String, byte[]> output = TestJars.read(new File(dir, "streamed-1.jar"));
+        Assertions.assertTrue(output.containsKey("added/NewClass.class"), "New class was not added");
+    }
+
+    @Test
+    public void testOutOfOrder() throws IOException {
+        // Sorted by name, while the clean jar is not, so patches turn up after their entries were passed
+        File bundle = create("sorted.lzma", false);
+        for (int threads : new int[] { 1, 4 }) {
+            File expected = apply(bundle, "loaded-" + threads + ".jar", false, 64, threads);
+            assertSameJar(expected, apply(bundle, "streamed-" + threads + ".jar", true, 1, threads));
+        }
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        File bundle = create("sorted.lzma", false);
+        Map<String, byte[]> expected = TestJars.read(apply(bundle, "loaded.jar", false, 64, 1));
+
+        File output = new File(dir, "streamed");
+        Patcher patcher = new Patcher(clean, output).includeUnpatched(true).streaming(true).window(1).directory(true);
+        patcher.loadPatches(bundle, null);
+        patcher.process();
+
+        // The streamed pass may have written some files before the order problem was found, the full pass must correct all of them
+        for (Map.Entry<String, byte[]> e : expected.entrySet())
+            Assertions.assertArrayEquals(e.getValue(), Files.readAllBytes(new File(output, e.getKey()).toPath()), "Wrong data for " + e.getKey());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds small clean and dirty jars for the tests that run the whole generate and patch cycle
+ */
+class TestJars {
+    private TestJars() {}
+
+    static File tempDir(String name) throws IOException {
+        return Files.createTempDirectory("binarypatcher-" + name).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static File write(File jar, Map<String, byte[]> entries) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                entry.setTime(0);
+                out.putNextEntry(entry);
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * @return Every file entry, in the order they are stored.
+     */
+    static Map<String, byte[]> read(File jar) throws IOException {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(jar))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory())
+                    ret.put(entry.getName(), read(in));
+            }
+        }
+        return ret;
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) != -1)
+            bos.write(buf, 0, len);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Random classes spread over a few packages, every third one with inner classes.
+     * The data is half random and half repeated, so that diffs and compression have something to work with.
+     */
+    static Map<String, byte[]> classes(Random rand, int count) {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        for (int x = 0; x < count; x++) {
+            String name = "pkg" + (x % 5) + "/Class" + x;
+            ret.put(name + ".class", data(rand));
+            if (x % 3 == 0) {
+                ret.put(name + "$1.class", data(rand));
+                ret.put(name + "$Inner.class", data(rand));
+            }
+        }
+        return ret;
+    }
+
+    static byte[] data(Random rand) {
+        byte[] data = new byte[200 + rand.nextInt(1500)];
+        for (int x = 0; x < data.length; x++)
+            data[x] = x < data.length / 2 ? (byte)rand.nextInt() : (byte)(x % 13);
+        return data;
+    }
+
+    /**
+     * Edits some entries in place, removes some, and adds new ones, the way a dirty jar differs from its clean one.
+     */
+    static Map<String, byte[]> modify(Random rand, Map<String, byte[]> clean) {
+        Map<String, byte[]> ret = new LinkedHashMap<>();
+        int x = 0;
+        for (Map.Entry<String, byte[]> e : clean.entrySet()) {
+            switch (x++ % 4) {
+                case 0: // Unchanged
+                    ret.put(e.getKey(), e.getValue());
+                    break;
+                case 1: { // A few bytes changed
+                    byte[] data = e.getValue().clone();
+                    for (int y = 0; y < 5; y++)
+                        data[rand.nextInt(data.length)] ^= 0x5A;
+                    ret.put(e.getKey(), data);
+                    break;
+                }
+                case 2: { // Grown
+                    byte[] data = new byte[e.getValue().length + 64];
+                    System.arraycopy(e.getValue(), 0, data, 32, e.getValue().length);
+                    ret.put(e.getKey(), data);
+                    break;
+                }
+                default: // Removed
+                    break;
+            }
+        }
+        ret.put("added/NewClass.class", data(rand));
+        ret.put("added/NewClass$1.class", data(rand));
+        return ret;
+    }
+}
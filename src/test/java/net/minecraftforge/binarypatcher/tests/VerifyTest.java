@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.Differ;
+import net.minecraftforge.binarypatcher.Generator;
+import net.minecraftforge.binarypatcher.SuffixArrayDiffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Validates that verification accepts good patches, and stops the bundle from being written when one doesn't apply
+ */
+public class VerifyTest {
+    private File dir;
+    private File clean;
+    private File dirty;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        dir = TestJars.tempDir("verify");
+        Random rand = new Random(42);
+        Map<String, byte[]> classes = TestJars.classes(rand, 40);
+        clean = TestJars.write(new File(dir, "clean.jar"), classes);
+        dirty = TestJars.write(new File(dir, "dirty.jar"), TestJars.modify(rand, classes));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TestJars.delete(dir);
+    }
+
+    private Generator generator(File output, Differ differ) {
+        return new Generator(output).differ(differ).addSet(clean, dirty, null);
+    }
+
+    @Test
+    public void testVerified() throws IOException {
+        File expected = new File(dir, "expected.lzma");
+        generator(expected, new SuffixArrayDiffer()).create();
+        for (int threads : new int[] { 1, 4 }) {
+            File verified = new File(dir, "verified-" + threads + ".lzma");
+            generator(verified, new SuffixArrayDiffer()).verify(true).threads(threads).create();
+            Assertions.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(verified.toPath()), "Verification changed the bundle");
+        }
+    }
+
+    @Test
+    public void testBrokenDiffer() throws IOException {
+        File output = new File(dir, "broken.lzma");
+        IOException e = Assertions.assertThrows(IOException.class, () -> generator(output, new BrokenDiffer()).verify(true).create());
+        Assertions.assertTrue(e.getMessage().startsWith("Verification failed"), "Unexpected error: " + e.getMessage());
+        Assertions.assertFalse(output.exists(), "Bundle was written with patches that don't apply");
+
+        // Without verification nothing notices, which is what the flag is for
+        generator(output, new BrokenDiffer()).create();
+        Assertions.assertTrue(output.isFile());
+    }
+
+    /*
+     * Emits valid GDiff that produces the wrong data, the same as a buggy engine would.
+     */
+    private static class BrokenDiffer implements Differ {
+        private final Differ differ = new SuffixArrayDiffer();
+
+        @Override
+        public String getName() {
+            return "broken";
+        }
+
+        @Override
+        public byte[] compute(byte[] clean, byte[] dirty) throws IOException {
+            byte[] wrong = dirty.clone();
+            if (wrong.length > 0)
+                wrong[wrong.length / 2] ^= 0x55;
+            return differ.compute(clean, wrong);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Forge Development LLC
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.binarypatcher.tests;
+
+import net.minecraftforge.binarypatcher.EntryWriter;
+import net.minecraftforge.binarypatcher.ParallelZipWriter;
+import net.minecraftforge.binarypatcher.ZipEntryWriter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Validates that the parallel writer produces the same entries as the single threaded one, regardless of thread count
+ */
+public class ZipWriterTest {
+    @BeforeAll
+    public static void setup() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+    }
+
+    private static List<byte[]> createEntries(int count) {
+        Random rand = new Random(42);
+        List<byte[]> ret = new ArrayList<>(count);
+        for (int x = 0; x < count; x++) {
+            // Half random, half repeated, so that the data actually compresses
+            byte[] data = new byte[rand.nextInt(2048)];
+            for (int y = 0; y < data.length; y++)
+                data[y] = y < data.length / 2 ? (byte)rand.nextInt() : (byte)(y % 7);
+            ret.add(data);
+        }
+        return ret;
+    }
+
+    private static File write(EntryWriter writer, File file, List<byte[]> entries) throws IOException {
+        try (EntryWriter out = writer) {
+            for (int x = 0; x < entries.size(); x++)
+                out.write("pkg" + (x % 10) + "/Entry" + x + ".class", entries.get(x));
+            out.writeMarker("marker.txt");
+            out.finish();
+        }
+        return file;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) != -1)
+            bos.write(buf, 0, len);
+        return bos.toByteArray();
+    }
+
+    private static void assertSameEntries(File expected, File actual) throws IOException {
+        try (ZipFile zexpected = new ZipFile(expected);
+             ZipFile zactual = new ZipFile(actual)) {
+            Assertions.assertEquals(zexpected.size(), zactual.size(), "Entry count differs");
+            Enumeration<? extends ZipEntry> eitr = zexpected.entries();
+            Enumeration<? extends ZipEntry> aitr = zactual.entries();
+            while (eitr.hasMoreElements()) {
+                ZipEntry e = eitr.nextElement();
+                ZipEntry a = aitr.nextElement();
+                Assertions.assertEquals(e.getName(), a.getName(), "Entry order differs");
+                Assertions.assertEquals(e.getCrc(), a.getCrc(), "CRC differs for " + e.getName());
+                Assertions.assertEquals(e.getTime(), a.getTime(), "Time differs for " + e.getName());
+                // Empty entries are stored by the parallel writer, instead of deflated to two bytes
+                if (e.getSize() > 0)
+                    Assertions.assertEquals(e.getCompressedSize(), a.getCompressedSize(), "Compressed size differs for " + e.getName());
+                Assertions.assertArrayEquals(read(zexpected.getInputStream(e)), read(zactual.getInputStream(a)), "Data differs for " + e.getName());
+            }
+        }
+
+        // Streaming readers only see the local headers, so make sure those are valid too
+        int count = 0;
+        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(actual))) {
+            while (zin.getNextEntry() != null) {
+                read(zin);
+                count++;
+            }
+        }
+        try (ZipFile zexpected = new ZipFile(expected)) {
+            Assertions.assertEquals(zexpected.size(), count, "Local headers differ from the central directory");
+        }
+    }
+
+    private static void testMatches(int count) throws IOException {
+        List<byte[]> entries = createEntries(count);
+        File dir = Files.createTempDirectory("binarypatcher-zip").toFile();
+        try {
+            File single = new File(dir, "single.jar");
+            write(new ZipEntryWriter(single, false, 9), single, entries);
+
+            File one = new File(dir, "parallel1.jar");
+            write(new ParallelZipWriter(one, 9, 1), one, entries);
+            File four = new File(dir, "parallel4.jar");
+            write(new ParallelZipWriter(four, 9, 4), four, entries);
+
+            assertSameEntries(single, one);
+            assertSameEntries(single, four);
+            Assertions.assertArrayEquals(Files.readAllBytes(one.toPath()), Files.readAllBytes(four.toPath()), "Output depends on thread count");
+            // ZipFile tolerates an entry count that wrapped around, so check for the record itself
+            Assertions.assertEquals(count + 1 >= 0xFFFF, hasZip64End(Files.readAllBytes(four.toPath())), "Zip64 end record");
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testDuplicate() throws IOException {
+        File dir = Files.createTempDirectory("binarypatcher-zip").toFile();
+        try {
+            File single = new File(dir, "single.jar");
+            File parallel = new File(dir, "parallel.jar");
+            for (EntryWriter writer : new EntryWriter[] { new ZipEntryWriter(single, false, 9), new ParallelZipWriter(parallel, 9, 4) }) {
+                try (EntryWriter out = writer) {
+                    out.write("pkg/Entry.class", new byte[] { 1 });
+                    Assertions.assertThrows(ZipException.class, () -> out.write("pkg/Entry.class", new byte[] { 2 }), "Duplicate accepted by " + writer.getClass().getSimpleName());
+                    Assertions.assertThrows(ZipException.class, () -> out.writeMarker("pkg/Entry.class"), "Duplicate marker accepted by " + writer.getClass().getSimpleName());
+                }
+            }
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testUnfinished() throws IOException {
+        List<byte[]> entries = createEntries(100);
+        File dir = Files.createTempDirectory("binarypatcher-zip").toFile();
+        try {
+            File single = new File(dir, "single.jar");
+            File parallel = new File(dir, "parallel.jar");
+            for (EntryWriter writer : new EntryWriter[] { new ZipEntryWriter(single, false, 9), new ParallelZipWriter(parallel, 9, 4) }) {
+                try (EntryWriter out = writer) {
+                    for (int x = 0; x < entries.size(); x++)
+                        out.write("pkg" + (x % 10) + "/Entry" + x + ".class", entries.get(x));
+                }
+            }
+            // A failed run must not leave a jar behind that looks complete
+            Assertions.assertFalse(single.exists(), "Unfinished jar was kept");
+            Assertions.assertFalse(parallel.exists(), "Unfinished jar was kept");
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private static boolean hasZip64End(byte[] data) {
+        // The zip64 end record and locator sit right before the 22 byte end record
+        for (int x = Math.max(0, data.length - 22 - 20 - 56); x < data.length - 3; x++) {
+            if (data[x] == 'P' && data[x + 1] == 'K' && data[x + 2] == 6 && data[x + 3] == 6)
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testMatchesSingleThreaded() throws IOException {
+        testMatches(500);
+    }
+
+    @Test
+    public void testZip64() throws IOException {
+        // More entries than the classic end of central directory record can count
+        testMatches(0xFFFF + 100);
+    }
+}